@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a table from nothing with one set per key, as
+ * AssociativeArrayExperiments.bulkLoad does, and building one and
+ * then removing every key again. Timed per table.
+ *
+ * @author Lucas Willett
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class BulkBenchmark {
+  @Param({ Table.ASSOCIATIVE_ARRAY, Table.HASH_MAP })
+  String impl;
+
+  @Param({ Keys.STRING, Keys.INTEGER, Keys.BIG_INTEGER })
+  String keyType;
+
+  @Param({ "16", "1024", "65536", "1048576", "10000000" })
+  int size;
+
+  Object[] keys;
+
+  @Setup
+  public void setUp() {
+    this.keys = Keys.shuffle(Keys.make(this.keyType, 0, this.size));
+  } // setUp()
+
+  @Benchmark
+  public Table load() {
+    Table table = Table.create(this.impl);
+    for (Object key : this.keys) {
+      table.set(key, key);
+    } // for
+    return table;
+  } // load()
+
+  @Benchmark
+  public Table loadAndRemove() {
+    Table table = this.load();
+    for (Object key : this.keys) {
+      table.remove(key);
+    } // for
+    return table;
+  } // loadAndRemove()
+} // class BulkBenchmark
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Builds the keys for the benchmarks, of the types the experiments
+ * use: Strings, Integers and BigIntegers.
+ *
+ * @author Lucas Willett
+ */
+class Keys {
+  /**
+   * The names of the key types, for @Param.
+   */
+  static final String STRING = "String";
+  static final String INTEGER = "Integer";
+  static final String BIG_INTEGER = "BigInteger";
+
+  /**
+   * Build keys first, first + 1, ..., first + n - 1 of the named type.
+   */
+  static Object[] make(String type, int first, int n) {
+    Object[] keys = new Object[n];
+    for (int i = 0; i < n; i++) {
+      keys[i] = make(type, first + i);
+    } // for
+    return keys;
+  } // make(String, int, int)
+
+  /**
+   * Build key number i of the named type.
+   */
+  static Object make(String type, int i) {
+    switch (type) {
+      case STRING:
+        return "key" + i;
+      case INTEGER:
+        return Integer.valueOf(i);
+      case BIG_INTEGER:
+        return BigInteger.valueOf(i).shiftLeft(64).add(BigInteger.valueOf(i));
+      default:
+        throw new IllegalArgumentException("unknown key type: " + type);
+    } // switch
+  } // make(String, int)
+
+  /**
+   * Shuffle keys (the same way every time), so that we visit them in
+   * no particular order.
+   */
+  static Object[] shuffle(Object[] keys) {
+    Random random = new Random(42);
+    for (int i = keys.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      Object tmp = keys[i];
+      keys[i] = keys[j];
+      keys[j] = tmp;
+    } // for
+    return keys;
+  } // shuffle(Object[])
+} // class Keys
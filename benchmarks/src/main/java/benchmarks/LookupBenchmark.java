@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups in a full table: get of a key that is there, get of one
+ * that is not, and hasKey. Each call uses the next key of a shuffled
+ * array, so the table is visited in no particular order.
+ *
+ * @author Lucas Willett
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class LookupBenchmark {
+  @Param({ Table.ASSOCIATIVE_ARRAY, Table.HASH_MAP })
+  String impl;
+
+  @Param({ Keys.STRING, Keys.INTEGER, Keys.BIG_INTEGER })
+  String keyType;
+
+  @Param({ "16", "1024", "65536", "1048576", "10000000" })
+  int size;
+
+  Table table;
+  Object[] hits;
+  Object[] misses;
+  int next;
+
+  @Setup
+  public void setUp() {
+    this.table = Table.create(this.impl);
+    this.hits = Keys.make(this.keyType, 0, this.size);
+    for (Object key : this.hits) {
+      this.table.set(key, key);
+    } // for
+    Keys.shuffle(this.hits);
+    this.misses = Keys.shuffle(Keys.make(this.keyType, this.size, this.size));
+  } // setUp()
+
+  /**
+   * Get the index of the key to use next.
+   */
+  int advance() {
+    int i = this.next;
+    this.next = (i + 1 == this.size) ? 0 : i + 1;
+    return i;
+  } // advance()
+
+  @Benchmark
+  public Object getHit() {
+    return this.table.get(this.hits[this.advance()]);
+  } // getHit()
+
+  @Benchmark
+  public Object getMiss() {
+    return this.table.get(this.misses[this.advance()]);
+  } // getMiss()
+
+  @Benchmark
+  public boolean hasKey() {
+    return this.table.hasKey(this.hits[this.advance()]);
+  } // hasKey()
+
+  @Benchmark
+  public boolean hasKeyMiss() {
+    return this.table.hasKey(this.misses[this.advance()]);
+  } // hasKeyMiss()
+} // class LookupBenchmark
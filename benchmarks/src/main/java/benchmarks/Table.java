@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.util.HashMap;
+
+import structures.AssociativeArray;
+import structures.KeyNotFoundException;
+import structures.NullKeyException;
+
+/**
+ * The operations we benchmark, so that AssociativeArray and the
+ * HashMap baseline run exactly the same benchmark code. Each fork
+ * only ever sees one kind of table, so the calls stay monomorphic.
+ *
+ * @author Lucas Willett
+ */
+interface Table {
+  /**
+   * The names of the implementations, for @Param.
+   */
+  String ASSOCIATIVE_ARRAY = "AssociativeArray";
+  String HASH_MAP = "HashMap";
+
+  void set(Object key, Object value);
+
+  /**
+   * Get the value for key, or null if there is none.
+   */
+  Object get(Object key);
+
+  boolean hasKey(Object key);
+
+  void remove(Object key);
+
+  /**
+   * Create an empty table of the named implementation.
+   */
+  static Table create(String impl) {
+    switch (impl) {
+      case ASSOCIATIVE_ARRAY:
+        return new Associative();
+      case HASH_MAP:
+        return new Hash();
+      default:
+        throw new IllegalArgumentException("unknown implementation: " + impl);
+    } // switch
+  } // create(String)
+
+  /**
+   * An AssociativeArray, used the way callers use it: get throws on
+   * a miss.
+   */
+  static class Associative implements Table {
+    final AssociativeArray<Object, Object> arr = new AssociativeArray<Object, Object>();
+
+    public void set(Object key, Object value) {
+      try {
+        this.arr.set(key, value);
+      } catch (NullKeyException e) {
+        throw new IllegalArgumentException(e);
+      } // try/catch
+    } // set(Object, Object)
+
+    public Object get(Object key) {
+      try {
+        return this.arr.get(key);
+      } catch (KeyNotFoundException e) {
+        return null;
+      } // try/catch
+    } // get(Object)
+
+    public boolean hasKey(Object key) {
+      return this.arr.hasKey(key);
+    } // hasKey(Object)
+
+    public void remove(Object key) {
+      this.arr.remove(key);
+    } // remove(Object)
+  } // class Associative
+
+  /**
+   * The java.util.HashMap baseline.
+   */
+  static class Hash implements Table {
+    final HashMap<Object, Object> map = new HashMap<Object, Object>();
+
+    public void set(Object key, Object value) {
+      this.map.put(key, value);
+    } // set(Object, Object)
+
+    public Object get(Object key) {
+      return this.map.get(key);
+    } // get(Object)
+
+    public boolean hasKey(Object key) {
+      return this.map.containsKey(key);
+    } // hasKey(Object)
+
+    public void remove(Object key) {
+      this.map.remove(key);
+    } // remove(Object)
+  } // class Hash
+} // interface Table
@@ -0,0 +1,76 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Changes to a full table that leave its size alone: replacing the
+ * value of a key that is there, and churn, which removes a key and
+ * then sets a different one that was removed earlier, so removed
+ * slots are made and reused all the time.
+ *
+ * @author Lucas Willett
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class UpdateBenchmark {
+  @Param({ Table.ASSOCIATIVE_ARRAY, Table.HASH_MAP })
+  String impl;
+
+  @Param({ Keys.STRING, Keys.INTEGER, Keys.BIG_INTEGER })
+  String keyType;
+
+  @Param({ "16", "1024", "65536", "1048576", "10000000" })
+  int size;
+
+  Table table;
+
+  /**
+   * The keys in the table, followed by as many that are not.
+   */
+  Object[] keys;
+
+  int next;
+
+  @Setup
+  public void setUp() {
+    this.table = Table.create(this.impl);
+    this.keys = Keys.make(this.keyType, 0, 2 * this.size);
+    for (int i = 0; i < this.size; i++) {
+      this.table.set(this.keys[i], this.keys[i]);
+    } // for
+    this.next = 0;
+  } // setUp()
+
+  @Benchmark
+  public void setExisting() {
+    int i = this.next;
+    this.next = (i + 1 == this.size) ? 0 : i + 1;
+    this.table.set(this.keys[i], this.keys[this.size + i]);
+  } // setExisting()
+
+  @Benchmark
+  public void churn() {
+    // Keys i .. i + size - 1 (mod 2 * size) are always the ones present.
+    int i = this.next;
+    this.next = (i + 1 == 2 * this.size) ? 0 : i + 1;
+    int j = (i + this.size < 2 * this.size) ? i + this.size : i - this.size;
+    this.table.remove(this.keys[i]);
+    this.table.set(this.keys[j], this.keys[j]);
+  } // churn()
+} // class UpdateBenchmark
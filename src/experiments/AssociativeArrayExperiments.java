@@ -1,9 +1,10 @@
 package experiments;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.fail;
 import java.io.PrintWriter;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
 
 import structures.AssociativeArray;
 import structures.KeyNotFoundException;
@@ -32,6 +33,14 @@ public class AssociativeArrayExperiments {
     divider(pen);
     experimentBigIntToBigInt(pen);
     divider(pen);
+    experimentBulkLoad(pen);
+    divider(pen);
+    experimentTracing(pen);
+    divider(pen);
+    experimentRecordAndReplay(pen);
+    divider(pen);
+    experimentLoad(pen);
+    divider(pen);
   } // main(String[])
 
   // +-------------+-------------------------------------------------
@@ -118,10 +127,147 @@ public class AssociativeArrayExperiments {
 
   } // experimentBigIntToBigInt
 
+  /**
+   * Our third experiment: How long does it take to load ever-larger
+   * associative arrays? If set is (amortized) constant time, the
+   * time per key should stay roughly flat as the number of keys grows
+   * by factors of ten, rather than growing tenfold each time.
+   */
+  public static void experimentBulkLoad(PrintWriter pen) throws Exception {
+    // Warm up the JIT so the first row is not dominated by it
+    bulkLoad(100000);
+    for (int n = 1000; n <= 1000000; n *= 10) {
+      long nanos = bulkLoad(n);
+      pen.printf("load %,9d keys: %,6d ms, %6.1f ns/key%n",
+          n, nanos / 1000000, ((double) nanos) / n);
+    } // for
+  } // experimentBulkLoad(PrintWriter)
+
+  /**
+   * Our fourth experiment: What does tracing cost? We run the same
+   * mix of operations on plain arrays and on TracingAssociativeArrays
+   * that sample one operation in a thousand, from several threads at
+   * once (each with its own array, all sharing one tracer).
+   */
+  public static void experimentTracing(PrintWriter pen) throws Exception {
+    int threads = 4;
+    int n = 1000000;
+    // Warm up the JIT
+    mixedWorkload(new AssociativeArray<Integer,Integer>(), n);
+    long plain = runThreads(threads, () -> new AssociativeArray<Integer,Integer>(), n);
+    long traced;
+    Tracer tracer = new Tracer(pen, 1 << 16, 1000, 10);
+    try (tracer) {
+      traced = runThreads(threads,
+          () -> new TracingAssociativeArray<Integer,Integer>("t", tracer), n);
+    } // try
+    pen.printf("dropped %d events, did not show %d%n", tracer.dropped(),
+        tracer.suppressed());
+    pen.printf("plain:  %6.1f ns/op%n", ((double) plain) / n);
+    pen.printf("traced: %6.1f ns/op%n", ((double) traced) / n);
+  } // experimentTracing(PrintWriter)
+
+  /**
+   * Our fifth experiment: Record a run of the mixed workload against a
+   * RecordingAssociativeArray, then replay it against each
+   * implementation (see TraceReplay for replaying traces from the
+   * command line).
+   */
+  public static void experimentRecordAndReplay(PrintWriter pen) throws Exception {
+    Path file = Files.createTempFile("associative-array", ".trace");
+    try {
+      try (TraceWriter trace = new TraceWriter(file)) {
+        mixedWorkload(new RecordingAssociativeArray<Integer,Integer>(trace), 1000000);
+      } // try
+      TraceReplay.replayAll(Trace.read(file), MapTarget.IMPLEMENTATIONS, pen);
+    } finally {
+      Files.delete(file);
+    } // try/finally
+  } // experimentRecordAndReplay(PrintWriter)
+
+  /**
+   * Our sixth experiment: A read-mostly, Zipfian workload in the style
+   * of YCSB workload B, from one thread and from two (see LoadDriver
+   * for other workloads, sizes and thread counts).
+   */
+  public static void experimentLoad(PrintWriter pen) throws Exception {
+    Workload workload = new Workload("B");
+    workload.set("records", "100000");
+    workload.set("operations", "400000");
+    new LoadDriver(workload, 0).runAll(new String[] { MapTarget.ASSOCIATIVE_ARRAY,
+        MapTarget.CONCURRENT, MapTarget.CONCURRENT_HASH_MAP }, new int[] { 1, 2 }, pen);
+  } // experimentLoad(PrintWriter)
+
   // +---------+-----------------------------------------------------
   // | Helpers |
   // +---------+
 
+  /**
+   * Load n distinct Integer keys into a fresh associative array and
+   * return the number of nanoseconds it took.
+   */
+  static long bulkLoad(int n) throws Exception {
+    AssociativeArray<Integer,Integer> arr = new AssociativeArray<Integer,Integer>();
+    long start = System.nanoTime();
+    for (int i = 0; i < n; i++) {
+      arr.set(i, i);
+    } // for
+    long nanos = System.nanoTime() - start;
+    if (arr.size() != n) {
+      throw new IllegalStateException("expected " + n + " keys, found " + arr.size());
+    } // if
+    return nanos;
+  } // bulkLoad(int)
+
+  /**
+   * Set, get, check and remove n / 4 keys each in arr and return the
+   * number of nanoseconds it took.
+   */
+  static long mixedWorkload(AssociativeArray<Integer,Integer> arr, int n) throws Exception {
+    int keys = n / 4;
+    long start = System.nanoTime();
+    for (int i = 0; i < keys; i++) {
+      arr.set(i, i);
+    } // for
+    for (int i = 0; i < keys; i++) {
+      arr.get(i);
+    } // for
+    for (int i = 0; i < keys; i++) {
+      arr.hasKey(i + keys / 2);
+    } // for
+    for (int i = 0; i < keys; i++) {
+      arr.remove(i);
+    } // for
+    return System.nanoTime() - start;
+  } // mixedWorkload(AssociativeArray, int)
+
+  /**
+   * Run mixedWorkload(arrays.get(), n) on each of several threads at
+   * once and return the mean number of nanoseconds they took.
+   */
+  static long runThreads(int threads, Supplier<AssociativeArray<Integer,Integer>> arrays,
+      int n) throws Exception {
+    long[] nanos = new long[threads];
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      int me = t;
+      workers[t] = new Thread(() -> {
+        try {
+          nanos[me] = mixedWorkload(arrays.get(), n);
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        } // try/catch
+      });
+      workers[t].start();
+    } // for
+    long total = 0;
+    for (int t = 0; t < threads; t++) {
+      workers[t].join();
+      total += nanos[t];
+    } // for
+    return total / threads;
+  } // runThreads(int, Supplier, int)
+
   /**
    * Print a divider.
    */
@@ -0,0 +1,160 @@
+package experiments;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Chooses which key an operation touches, the way YCSB does. Keys are
+ * ids from 0 to itemCount - 1, where itemCount (the number of keys
+ * inserted so far) may grow as a workload runs.
+ *
+ * All of the choosers are thread-safe.
+ *
+ * @author Lucas Willett
+ */
+interface KeyChooser {
+  /**
+   * The names of the distributions.
+   */
+  String UNIFORM = "uniform";
+  String ZIPFIAN = "zipfian";
+  String LATEST = "latest";
+
+  /**
+   * Choose one of the ids 0 .. itemCount - 1.
+   */
+  int next(int itemCount);
+
+  /**
+   * Create the named chooser.
+   */
+  static KeyChooser create(String distribution) {
+    switch (distribution) {
+      case UNIFORM:
+        return new Uniform();
+      case ZIPFIAN:
+        return new ScrambledZipfian();
+      case LATEST:
+        return new Latest();
+      default:
+        throw new IllegalArgumentException("unknown distribution: " + distribution);
+    } // switch
+  } // create(String)
+
+  /**
+   * Every key equally likely.
+   */
+  static class Uniform implements KeyChooser {
+    public int next(int itemCount) {
+      return ThreadLocalRandom.current().nextInt(itemCount);
+    } // next(int)
+  } // class Uniform
+
+  /**
+   * Key i is chosen in proportion to 1 / (i + 1)^theta, so 0 is the
+   * most popular and popularity falls off quickly. Uses the method of
+   * Gray et al., "Quickly generating billion-record synthetic
+   * databases" (SIGMOD 1994), as YCSB does. The constant zeta(n) is a
+   * sum over all n items; we extend it a term at a time as itemCount
+   * grows. As in YCSB, a smaller itemCount than we have seen (from a
+   * thread that is a little behind) reuses the larger sum.
+   */
+  static class Zipfian implements KeyChooser {
+    /**
+     * YCSB's default skew.
+     */
+    static final double THETA = 0.99;
+
+    static final double ALPHA = 1.0 / (1.0 - THETA);
+
+    static final double ZETA2 = 1.0 + Math.pow(0.5, THETA);
+
+    /**
+     * The parameters that depend on the number of items, which change
+     * together.
+     */
+    volatile State state = new State(0, 0.0);
+
+    public int next(int itemCount) {
+      State s = this.state;
+      if (s.count < itemCount) {
+        s = this.grow(itemCount);
+      } // if
+      double u = ThreadLocalRandom.current().nextDouble();
+      double uz = u * s.zetan;
+      if (uz < 1.0) {
+        return 0;
+      } // if
+      if (uz < ZETA2) {
+        return Math.min(1, itemCount - 1);
+      } // if
+      int id = (int) (itemCount * Math.pow(s.eta * u - s.eta + 1, ALPHA));
+      return Math.min(id, itemCount - 1);
+    } // next(int)
+
+    /**
+     * Extend zeta to (at least) itemCount items.
+     */
+    synchronized State grow(int itemCount) {
+      State s = this.state;
+      if (s.count < itemCount) {
+        double zetan = s.zetan;
+        for (long i = s.count + 1; i <= itemCount; i++) {
+          zetan += 1.0 / Math.pow(i, THETA);
+        } // for
+        this.state = s = new State(itemCount, zetan);
+      } // if
+      return s;
+    } // grow(int)
+
+    /**
+     * zeta(count) and the eta that goes with it.
+     */
+    static class State {
+      final int count;
+      final double zetan;
+      final double eta;
+
+      State(int count, double zetan) {
+        this.count = count;
+        this.zetan = zetan;
+        // With two items or fewer, next never gets as far as eta.
+        this.eta = (count <= 2) ? 0.0
+            : (1 - Math.pow(2.0 / count, 1 - THETA)) / (1 - ZETA2 / zetan);
+      } // State(int, double)
+    } // class State
+  } // class Zipfian
+
+  /**
+   * Zipfian popularity, but with the popular keys scattered across the
+   * ids (by hashing the rank) rather than bunched at the start, so
+   * they do not share a few cache lines or hash buckets.
+   */
+  static class ScrambledZipfian extends Zipfian {
+    public int next(int itemCount) {
+      return (int) Long.remainderUnsigned(fnv(super.next(itemCount)), itemCount);
+    } // next(int)
+
+    /**
+     * The 64-bit FNV-1a hash of the bytes of value.
+     */
+    static long fnv(long value) {
+      long hash = 0xCBF29CE484222325L;
+      for (int i = 0; i < 8; i++) {
+        hash ^= value & 0xFF;
+        hash *= 0x100000001B3L;
+        value >>>= 8;
+      } // for
+      return hash;
+    } // fnv(long)
+  } // class ScrambledZipfian
+
+  /**
+   * Zipfian popularity by age: the most recently inserted key is the
+   * most popular.
+   */
+  static class Latest extends Zipfian {
+    public int next(int itemCount) {
+      return itemCount - 1 - super.next(itemCount);
+    } // next(int)
+  } // class Latest
+} // interface KeyChooser
@@ -0,0 +1,180 @@
+package experiments;
+
+import java.io.PrintWriter;
+
+/**
+ * Counts latencies (in nanoseconds) in log-linear buckets, as
+ * HdrHistogram does: every power of two is split into 64 equal
+ * buckets, so a reported value is never more than about 1.5% above
+ * the true one, while the counts for the whole range of longs fit in
+ * a few thousand slots. Recording is one array increment.
+ *
+ * Not thread-safe; give each thread its own and add them together.
+ *
+ * @author Lucas Willett
+ */
+public class LatencyHistogram {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of buckets in each power of two (beyond the first few,
+   * which have a bucket per value).
+   */
+  static final int SUB_BUCKETS = 64;
+
+  /**
+   * Values below this have a bucket each.
+   */
+  static final int LINEAR = 2 * SUB_BUCKETS;
+
+  /**
+   * The number of buckets.
+   */
+  static final int BUCKETS = LINEAR + (63 - 7) * SUB_BUCKETS;
+
+  /**
+   * The percentiles we print.
+   */
+  static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+  /**
+   * What we call them.
+   */
+  static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p99.9", "p99.99" };
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * counts[i] is the number of values in bucket i.
+   */
+  final long[] counts = new long[BUCKETS];
+
+  /**
+   * The number of values.
+   */
+  long count;
+
+  /**
+   * Their sum.
+   */
+  long total;
+
+  /**
+   * The largest.
+   */
+  long max;
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Count a value. Negative values count as zero.
+   */
+  public void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    this.counts[bucket(value)]++;
+    this.count++;
+    this.total += value;
+    this.max = Math.max(this.max, value);
+  } // record(long)
+
+  /**
+   * Add the values of other to ours.
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      this.counts[i] += other.counts[i];
+    } // for
+    this.count += other.count;
+    this.total += other.total;
+    this.max = Math.max(this.max, other.max);
+  } // add(LatencyHistogram)
+
+  /**
+   * Get the number of values.
+   */
+  public long count() {
+    return this.count;
+  } // count()
+
+  /**
+   * Get the mean value (or 0 if there are none).
+   */
+  public double mean() {
+    return (this.count == 0) ? 0 : (double) this.total / this.count;
+  } // mean()
+
+  /**
+   * Get the largest value.
+   */
+  public long max() {
+    return this.max;
+  } // max()
+
+  /**
+   * Get the smallest value that at least percentile percent of the
+   * values are no larger than, to within the bucket width (or 0 if
+   * there are none).
+   *
+   * @throws IllegalArgumentException
+   *   when percentile is not between 0 and 100.
+   */
+  public long percentile(double percentile) {
+    if (!(percentile >= 0 && percentile <= 100)) {
+      throw new IllegalArgumentException("illegal percentile: " + percentile);
+    } // if
+    long rank = Math.max(1, (long) Math.ceil(this.count * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return Math.min(highest(i), this.max);
+      } // if
+    } // for
+    return 0;
+  } // percentile(double)
+
+  /**
+   * Print the mean, the usual percentiles and the maximum, in
+   * microseconds, on one line.
+   */
+  public void print(PrintWriter pen) {
+    pen.printf("mean %7.2f", this.mean() / 1000);
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      pen.printf("  %s %7.2f", PERCENTILE_NAMES[i], this.percentile(PERCENTILES[i]) / 1000.0);
+    } // for
+    pen.printf("  max %.2f us%n", this.max / 1000.0);
+  } // print(PrintWriter)
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Find the bucket for a non-negative value.
+   */
+  static int bucket(long value) {
+    if (value < LINEAR) {
+      return (int) value;
+    } // if
+    int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+    return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  } // bucket(long)
+
+  /**
+   * Find the largest value in bucket i.
+   */
+  static long highest(int i) {
+    if (i < LINEAR) {
+      return i;
+    } // if
+    int shift = (i - LINEAR) / SUB_BUCKETS + 1;
+    long sub = (i - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((sub + 1) << shift) - 1;
+  } // highest(int)
+} // class LatencyHistogram
@@ -0,0 +1,282 @@
+package experiments;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a YCSB-style workload (see Workload) against each
+ * implementation with one or more threads, and reports throughput and
+ * latency percentiles for each kind of operation.
+ *
+ * Each run loads the records into a fresh table from a single thread,
+ * then starts the threads together, each running its share of the
+ * operations. Implementations that are not thread-safe are put behind
+ * a single lock (see MapTarget.synchronize) when there is more than one
+ * thread. Each implementation first runs the whole workload once to
+ * warm up.
+ *
+ * With a target throughput, each thread spaces its operations evenly
+ * and measures each latency from when the operation should have
+ * started, not when it did, so a stall counts against every
+ * operation it delays (as HdrHistogram and wrk2 do, to avoid
+ * "coordinated omission"). Without one, the threads run flat out.
+ *
+ * Usage: LoadDriver [setting=value ...], where the settings are
+ *
+ *   workload=A        one of the presets in Workload
+ *   records=N, operations=N, distribution=D, read=P, update=P,
+ *   insert=P, delete=P, rmw=P
+ *                     change the preset (see Workload.set)
+ *   threads=1,4       the numbers of threads to try
+ *   impls=A,B         the implementations to try (see MapTarget)
+ *   target=N          the total operations per second to aim for
+ *
+ * @author Lucas Willett
+ */
+public class LoadDriver {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * When pacing, we spin rather than sleep for the last this many
+   * nanoseconds before an operation is due.
+   */
+  static final long SPIN_NANOS = 100000;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * What to run.
+   */
+  final Workload workload;
+
+  /**
+   * The total operations per second to aim for, or 0 to run flat out.
+   */
+  final long target;
+
+  /**
+   * The keys, boxed ahead of time so that boxing is not part of what
+   * we measure. There is room for every operation to be an insert.
+   */
+  final Integer[] keys;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a driver for workload.
+   */
+  public LoadDriver(Workload workload, long target) {
+    if (workload.total() <= 0) {
+      throw new IllegalArgumentException("workload has no operations");
+    } // if
+    this.workload = workload;
+    this.target = target;
+    this.keys = new Integer[workload.records + workload.operations];
+    for (int i = 0; i < this.keys.length; i++) {
+      this.keys[i] = i;
+    } // for
+  } // LoadDriver(Workload, long)
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Drive a workload.
+   */
+  public static void main(String[] args) throws Exception {
+    PrintWriter pen = new PrintWriter(System.out, true);
+    Workload workload = new Workload("A");
+    String[] impls = MapTarget.IMPLEMENTATIONS;
+    int processors = Runtime.getRuntime().availableProcessors();
+    // By default, run with one thread and with one per processor (just
+    // once, when those are the same).
+    int[] threads = (processors == 1) ? new int[] { 1 } : new int[] { 1, processors };
+    long target = 0;
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (eq < 0) {
+        throw new IllegalArgumentException("expected setting=value: " + arg);
+      } // if
+      String setting = arg.substring(0, eq);
+      String value = arg.substring(eq + 1);
+      switch (setting) {
+        case "workload":
+          workload = new Workload(value);
+          break;
+        case "impls":
+          impls = value.split(",");
+          break;
+        case "threads":
+          String[] counts = value.split(",");
+          threads = new int[counts.length];
+          for (int i = 0; i < counts.length; i++) {
+            threads[i] = Workload.positive(setting, counts[i]);
+          } // for
+          break;
+        case "target":
+          target = Long.parseLong(value);
+          break;
+        default:
+          workload.set(setting, value);
+      } // switch
+    } // for
+    new LoadDriver(workload, target).runAll(impls, threads, pen);
+  } // main(String[])
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Run the workload against each of impls with each number of
+   * threads, printing what we find.
+   */
+  public void runAll(String[] impls, int[] threads, PrintWriter pen) throws Exception {
+    pen.println(this.workload);
+    for (String impl : impls) {
+      this.run(impl, 1, null);
+      for (int n : threads) {
+        this.run(impl, n, pen);
+      } // for
+    } // for
+  } // runAll(String[], int[], PrintWriter)
+
+  /**
+   * Run the workload once against impl with the given number of
+   * threads, printing the results if pen is not null.
+   */
+  public void run(String impl, int threads, PrintWriter pen) throws Exception {
+    MapTarget table = MapTarget.create(impl);
+    if (threads > 1) {
+      table = MapTarget.synchronize(table);
+    } // if
+    String label = impl + (table instanceof MapTarget.Synchronized ? " (synchronized)" : "");
+
+    // Load
+    long start = System.nanoTime();
+    for (int i = 0; i < this.workload.records; i++) {
+      table.set(this.keys[i], this.keys[i]);
+    } // for
+    long loadNanos = System.nanoTime() - start;
+
+    // Run
+    AtomicInteger inserted = new AtomicInteger(this.workload.records);
+    KeyChooser chooser = KeyChooser.create(this.workload.distribution);
+    LatencyHistogram[][] latencies = new LatencyHistogram[threads][];
+    CountDownLatch ready = new CountDownLatch(threads);
+    CountDownLatch go = new CountDownLatch(1);
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      int me = t;
+      int operations = this.workload.operations / threads
+          + ((t < this.workload.operations % threads) ? 1 : 0);
+      MapTarget shared = table;
+      workers[t] = new Thread(() -> {
+        ready.countDown();
+        try {
+          go.await();
+        } catch (InterruptedException e) {
+          return;
+        } // try/catch
+        latencies[me] = this.work(shared, chooser, inserted, operations, threads);
+      }, "load-" + t);
+      workers[t].start();
+    } // for
+    ready.await();
+    start = System.nanoTime();
+    go.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    } // for
+    long runNanos = System.nanoTime() - start;
+    if (pen == null) {
+      return;
+    } // if
+
+    pen.printf("%s, %d thread%s: load %,.0f ops/s, run %,.0f ops/s%n", label, threads,
+        (threads == 1) ? "" : "s", this.workload.records * 1e9 / loadNanos,
+        this.workload.operations * 1e9 / runNanos);
+    LatencyHistogram all = new LatencyHistogram();
+    for (int op = 0; op < Workload.OP_NAMES.length; op++) {
+      LatencyHistogram merged = new LatencyHistogram();
+      for (LatencyHistogram[] mine : latencies) {
+        merged.add(mine[op]);
+      } // for
+      if (merged.count() > 0) {
+        pen.printf("  %-6s %,10d ops  ", Workload.OP_NAMES[op], merged.count());
+        merged.print(pen);
+        all.add(merged);
+      } // if
+    } // for
+    pen.printf("  %-6s %,10d ops  ", "all", all.count());
+    all.print(pen);
+  } // run(String, int, PrintWriter)
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Run operations operations against table from this thread, one of
+   * threads, and return the latencies of each kind.
+   */
+  LatencyHistogram[] work(MapTarget table, KeyChooser chooser, AtomicInteger inserted,
+      int operations, int threads) {
+    LatencyHistogram[] latencies = new LatencyHistogram[Workload.OP_NAMES.length];
+    for (int op = 0; op < latencies.length; op++) {
+      latencies[op] = new LatencyHistogram();
+    } // for
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long interval = (this.target > 0) ? (long) (threads * 1e9 / this.target) : 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < operations; i++) {
+      int op = this.workload.choose(random.nextDouble());
+      long began = System.nanoTime();
+      if (interval > 0) {
+        long due = start + i * interval;
+        while (began < due) {
+          // Sleeping is too coarse for short waits, so we spin.
+          if (due - began > SPIN_NANOS) {
+            LockSupport.parkNanos(due - began - SPIN_NANOS);
+          } else {
+            Thread.onSpinWait();
+          } // if/else
+          began = System.nanoTime();
+        } // while
+        began = due;
+      } // if
+      switch (op) {
+        case Workload.READ:
+          table.get(this.keys[chooser.next(inserted.get())]);
+          break;
+        case Workload.UPDATE:
+          Integer key = this.keys[chooser.next(inserted.get())];
+          table.set(key, key);
+          break;
+        case Workload.INSERT:
+          key = this.keys[inserted.getAndIncrement()];
+          table.set(key, key);
+          break;
+        case Workload.DELETE:
+          table.remove(this.keys[chooser.next(inserted.get())]);
+          break;
+        default:
+          key = this.keys[chooser.next(inserted.get())];
+          Integer value = table.get(key);
+          table.set(key, (value == null) ? key : value);
+      } // switch
+      latencies[op].record(System.nanoTime() - began);
+    } // for
+    return latencies;
+  } // work(MapTarget, KeyChooser, AtomicInteger, int, int)
+} // class LoadDriver
@@ -0,0 +1,319 @@
+package experiments;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import structures.AssociativeArray;
+import structures.ConcurrentAssociativeArray;
+import structures.FlatAssociativeArray;
+import structures.IntIntAssociativeArray;
+import structures.KeyNotFoundException;
+import structures.NullKeyException;
+
+/**
+ * The operations we replay and drive load with, so that every
+ * implementation runs exactly the same code. Keys and values are
+ * small non-negative Integers (key ids), which each implementation
+ * stores however it likes.
+ *
+ * Misses use each implementation's non-throwing lookup where it has
+ * one, so that we measure the table and not exception handling.
+ *
+ * Only some implementations may be shared between threads (see
+ * isThreadSafe); the others can be wrapped with synchronize.
+ *
+ * @author Lucas Willett
+ */
+interface MapTarget {
+  /**
+   * The names of the implementations.
+   */
+  String ASSOCIATIVE_ARRAY = "AssociativeArray";
+  String FLAT = "FlatAssociativeArray";
+  String INT_INT = "IntIntAssociativeArray";
+  String CONCURRENT = "ConcurrentAssociativeArray";
+  String HASH_MAP = "HashMap";
+  String CONCURRENT_HASH_MAP = "ConcurrentHashMap";
+
+  /**
+   * All of them, in the order we report them.
+   */
+  String[] IMPLEMENTATIONS = { ASSOCIATIVE_ARRAY, FLAT, INT_INT, CONCURRENT, HASH_MAP,
+      CONCURRENT_HASH_MAP };
+
+  void set(Integer key, Integer value);
+
+  /**
+   * Get the value for key, or null if there is none.
+   */
+  Integer get(Integer key);
+
+  boolean hasKey(Integer key);
+
+  void remove(Integer key);
+
+  int size();
+
+  /**
+   * Determine if several threads may use the target at once.
+   */
+  default boolean isThreadSafe() {
+    return false;
+  } // isThreadSafe()
+
+  /**
+   * Create an empty target of the named implementation.
+   */
+  static MapTarget create(String impl) {
+    switch (impl) {
+      case ASSOCIATIVE_ARRAY:
+        return new Associative();
+      case FLAT:
+        return new Flat();
+      case INT_INT:
+        return new IntInt();
+      case CONCURRENT:
+        return new Concurrent();
+      case HASH_MAP:
+        return new Hash();
+      case CONCURRENT_HASH_MAP:
+        return new ConcurrentHash();
+      default:
+        throw new IllegalArgumentException("unknown implementation: " + impl);
+    } // switch
+  } // create(String)
+
+  /**
+   * Make target safe to share between threads by holding a single lock
+   * for every operation, unless it is already.
+   */
+  static MapTarget synchronize(MapTarget target) {
+    return target.isThreadSafe() ? target : new Synchronized(target);
+  } // synchronize(MapTarget)
+
+  /**
+   * An AssociativeArray.
+   */
+  static class Associative implements MapTarget {
+    final AssociativeArray<Integer, Integer> arr = new AssociativeArray<Integer, Integer>();
+
+    public void set(Integer key, Integer value) {
+      try {
+        this.arr.set(key, value);
+      } catch (NullKeyException e) {
+        throw new IllegalArgumentException(e);
+      } // try/catch
+    } // set(Integer, Integer)
+
+    public Integer get(Integer key) {
+      return this.arr.getOrNull(key);
+    } // get(Integer)
+
+    public boolean hasKey(Integer key) {
+      return this.arr.hasKey(key);
+    } // hasKey(Integer)
+
+    public void remove(Integer key) {
+      this.arr.remove(key);
+    } // remove(Integer)
+
+    public int size() {
+      return this.arr.size();
+    } // size()
+  } // class Associative
+
+  /**
+   * A FlatAssociativeArray.
+   */
+  static class Flat implements MapTarget {
+    final FlatAssociativeArray<Integer, Integer> arr =
+        new FlatAssociativeArray<Integer, Integer>();
+
+    public void set(Integer key, Integer value) {
+      try {
+        this.arr.set(key, value);
+      } catch (NullKeyException e) {
+        throw new IllegalArgumentException(e);
+      } // try/catch
+    } // set(Integer, Integer)
+
+    public Integer get(Integer key) {
+      return this.arr.getOrNull(key);
+    } // get(Integer)
+
+    public boolean hasKey(Integer key) {
+      return this.arr.hasKey(key);
+    } // hasKey(Integer)
+
+    public void remove(Integer key) {
+      this.arr.remove(key);
+    } // remove(Integer)
+
+    public int size() {
+      return this.arr.size();
+    } // size()
+  } // class Flat
+
+  /**
+   * An IntIntAssociativeArray, which unboxes everything. Values are
+   * never negative, so -1 stands for a miss.
+   */
+  static class IntInt implements MapTarget {
+    final IntIntAssociativeArray arr = new IntIntAssociativeArray();
+
+    public void set(Integer key, Integer value) {
+      this.arr.set(key, value);
+    } // set(Integer, Integer)
+
+    public Integer get(Integer key) {
+      int value = this.arr.getOrDefault(key, -1);
+      return (value == -1) ? null : value;
+    } // get(Integer)
+
+    public boolean hasKey(Integer key) {
+      return this.arr.hasKey(key);
+    } // hasKey(Integer)
+
+    public void remove(Integer key) {
+      this.arr.remove(key);
+    } // remove(Integer)
+
+    public int size() {
+      return this.arr.size();
+    } // size()
+  } // class IntInt
+
+  /**
+   * A ConcurrentAssociativeArray. It has no non-throwing get, so
+   * misses cost an exception.
+   */
+  static class Concurrent implements MapTarget {
+    final ConcurrentAssociativeArray<Integer, Integer> arr =
+        new ConcurrentAssociativeArray<Integer, Integer>();
+
+    public void set(Integer key, Integer value) {
+      try {
+        this.arr.set(key, value);
+      } catch (NullKeyException e) {
+        throw new IllegalArgumentException(e);
+      } // try/catch
+    } // set(Integer, Integer)
+
+    public Integer get(Integer key) {
+      try {
+        return this.arr.get(key);
+      } catch (KeyNotFoundException e) {
+        return null;
+      } // try/catch
+    } // get(Integer)
+
+    public boolean hasKey(Integer key) {
+      return this.arr.hasKey(key);
+    } // hasKey(Integer)
+
+    public void remove(Integer key) {
+      this.arr.remove(key);
+    } // remove(Integer)
+
+    public int size() {
+      return this.arr.size();
+    } // size()
+
+    public boolean isThreadSafe() {
+      return true;
+    } // isThreadSafe()
+  } // class Concurrent
+
+  /**
+   * The java.util.HashMap baseline.
+   */
+  static class Hash implements MapTarget {
+    final HashMap<Integer, Integer> map = new HashMap<Integer, Integer>();
+
+    public void set(Integer key, Integer value) {
+      this.map.put(key, value);
+    } // set(Integer, Integer)
+
+    public Integer get(Integer key) {
+      return this.map.get(key);
+    } // get(Integer)
+
+    public boolean hasKey(Integer key) {
+      return this.map.containsKey(key);
+    } // hasKey(Integer)
+
+    public void remove(Integer key) {
+      this.map.remove(key);
+    } // remove(Integer)
+
+    public int size() {
+      return this.map.size();
+    } // size()
+  } // class Hash
+
+  /**
+   * The java.util.concurrent.ConcurrentHashMap baseline.
+   */
+  static class ConcurrentHash implements MapTarget {
+    final ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<Integer, Integer>();
+
+    public void set(Integer key, Integer value) {
+      this.map.put(key, value);
+    } // set(Integer, Integer)
+
+    public Integer get(Integer key) {
+      return this.map.get(key);
+    } // get(Integer)
+
+    public boolean hasKey(Integer key) {
+      return this.map.containsKey(key);
+    } // hasKey(Integer)
+
+    public void remove(Integer key) {
+      this.map.remove(key);
+    } // remove(Integer)
+
+    public int size() {
+      return this.map.size();
+    } // size()
+
+    public boolean isThreadSafe() {
+      return true;
+    } // isThreadSafe()
+  } // class ConcurrentHash
+
+  /**
+   * Another target, behind a single lock.
+   */
+  static class Synchronized implements MapTarget {
+    final MapTarget target;
+
+    Synchronized(MapTarget target) {
+      this.target = target;
+    } // Synchronized(MapTarget)
+
+    public synchronized void set(Integer key, Integer value) {
+      this.target.set(key, value);
+    } // set(Integer, Integer)
+
+    public synchronized Integer get(Integer key) {
+      return this.target.get(key);
+    } // get(Integer)
+
+    public synchronized boolean hasKey(Integer key) {
+      return this.target.hasKey(key);
+    } // hasKey(Integer)
+
+    public synchronized void remove(Integer key) {
+      this.target.remove(key);
+    } // remove(Integer)
+
+    public synchronized int size() {
+      return this.target.size();
+    } // size()
+
+    public boolean isThreadSafe() {
+      return true;
+    } // isThreadSafe()
+  } // class Synchronized
+} // interface MapTarget
@@ -0,0 +1,126 @@
+package experiments;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import structures.AssociativeArray;
+import structures.KeyNotFoundException;
+import structures.NullKeyException;
+import structures.ObjectIntAssociativeArray;
+
+/**
+ * An extension of the AssociativeArray class that records each set,
+ * get, hasKey and remove, with the time it happened, to a trace file
+ * (see Trace), so the same pattern of accesses can be replayed later
+ * against any implementation (see TraceReplay).
+ *
+ * Keys are recorded as ids, numbered in the order they first appear.
+ * Operations on the null key are not recorded.
+ *
+ * @author Lucas Willett
+ */
+public class RecordingAssociativeArray<K, V> extends AssociativeArray<K, V> {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where we record operations.
+   */
+  final TraceWriter trace;
+
+  /**
+   * The id of each key we have seen.
+   */
+  final ObjectIntAssociativeArray<K> ids = new ObjectIntAssociativeArray<K>();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty RecordingAssociativeArray that records its
+   * operations with `trace`.
+   */
+  public RecordingAssociativeArray(TraceWriter trace) {
+    super();
+    this.trace = trace;
+  } // RecordingAssociativeArray(TraceWriter)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Set a value.
+   *
+   * @throws NullKeyException
+   *   when the key is null.
+   */
+  public void set(K key, V value) throws NullKeyException {
+    this.record(Trace.SET, key);
+    super.set(key, value);
+  } // set(K,V)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws KeyNotFoundException
+   *   when the key does not appear in the associative array.
+   */
+  public V get(K key) throws KeyNotFoundException {
+    this.record(Trace.GET, key);
+    return super.get(key);
+  } // get(K)
+
+  /**
+   * Determine if key appears in the associative array.
+   */
+  public boolean hasKey(K key) {
+    this.record(Trace.HAS_KEY, key);
+    return super.hasKey(key);
+  } // hasKey(K)
+
+  /**
+   * Remove the key/value pair associated with a key. If the key does
+   * not appear in the associative array, does nothing.
+   */
+  public void remove(K key) {
+    this.record(Trace.REMOVE, key);
+    super.remove(key);
+  } // remove(K)
+
+  /**
+   * Write out everything recorded so far.
+   */
+  public void flush() throws IOException {
+    this.trace.flush();
+  } // flush()
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Record an operation on key, giving the key an id if it is new.
+   */
+  void record(byte op, K key) {
+    if (key == null) {
+      return;
+    } // if
+    int id = this.ids.getOrDefault(key, -1);
+    if (id == -1) {
+      id = this.ids.size();
+      try {
+        this.ids.set(key, id);
+      } catch (NullKeyException e) {
+        // We checked for null above.
+      } // try/catch
+    } // if
+    try {
+      this.trace.record(op, id, System.nanoTime());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+  } // record(byte, K)
+} // RecordingAssociativeArray
@@ -1,5 +1,6 @@
 package experiments;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import structures.AssociativeArray;
 import structures.KeyNotFoundException;
@@ -12,6 +13,15 @@ import structures.KeyNotFoundException;
  */
 public class ReportingAssociativeArray<K,V> extends AssociativeArray<K,V> {
 
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The most pairs we print when reporting the contents.
+   */
+  static final int REPORT_LIMIT = 20;
+
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
@@ -54,7 +64,7 @@ public class ReportingAssociativeArray<K,V> extends AssociativeArray<K,V> {
     } catch (Exception e) {
       pen.println("  set failed because " + e.toString());
     }
-    pen.println("  " + name + ": " + this.toString());
+    report();
   } // set (K,V)
 
   /**
@@ -95,7 +105,7 @@ public class ReportingAssociativeArray<K,V> extends AssociativeArray<K,V> {
   public void remove(K key) {
     pen.println(name + ".remove(" + key + ")");
     super.remove(key);
-    pen.println("  " + name + ": " + this.toString());
+    report();
   } // remove(K)
 
   /**
@@ -107,4 +117,17 @@ public class ReportingAssociativeArray<K,V> extends AssociativeArray<K,V> {
     pen.println(size);
     return size;
   } // size()
+
+  /**
+   * Print (the start of) the contents.
+   */
+  void report() {
+    pen.print("  " + name + ": ");
+    try {
+      this.render(pen, REPORT_LIMIT);
+    } catch (IOException e) {
+      // PrintWriters do not throw IOExceptions.
+    } // try/catch
+    pen.println();
+  } // report()
 } // ReportingAssociativeArray
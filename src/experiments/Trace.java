@@ -0,0 +1,271 @@
+package experiments;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A recorded sequence of operations on an associative array, read
+ * back from a trace file (see TraceWriter) into memory so it can be
+ * replayed at full speed.
+ *
+ * Keys are recorded not as themselves but as small ids, numbered from
+ * zero in the order the keys first appear; the values are not
+ * recorded at all. The file is a header
+ *
+ *   int magic, int version, long startMillis
+ *
+ * followed by one record per operation
+ *
+ *   byte op, varint keyId, varlong nanosSincePreviousRecord
+ *
+ * where the varints are little-endian base 128, as in protocol
+ * buffers. A record cut short at the end of the file (because the
+ * recording process died, say) is ignored.
+ *
+ * @author Lucas Willett
+ */
+public class Trace {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of every trace ("AAtr").
+   */
+  static final int MAGIC = 0x41417472;
+
+  /**
+   * The version of the format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The bytes in the header.
+   */
+  static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES;
+
+  /**
+   * The most bytes in a record.
+   */
+  static final int MAXIMUM_RECORD_BYTES = 1 + 5 + 10;
+
+  /**
+   * The operations.
+   */
+  public static final byte SET = 0;
+  public static final byte GET = 1;
+  public static final byte HAS_KEY = 2;
+  public static final byte REMOVE = 3;
+
+  /**
+   * What each operation is called.
+   */
+  static final String[] OP_NAMES = { "set", "get", "hasKey", "remove" };
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * When recording started, in milliseconds since the epoch.
+   */
+  final long startMillis;
+
+  /**
+   * The number of operations.
+   */
+  int count;
+
+  /**
+   * The operations, ...
+   */
+  byte[] ops = new byte[1024];
+
+  /**
+   * ... their keys, ...
+   */
+  int[] keys = new int[1024];
+
+  /**
+   * ... and when they happened, in nanoseconds after the first.
+   */
+  long[] times = new long[1024];
+
+  /**
+   * The number of distinct keys (one more than the largest id).
+   */
+  int keyCount;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty trace.
+   */
+  Trace(long startMillis) {
+    this.startMillis = startMillis;
+  } // Trace(long)
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Read the trace in file.
+   *
+   * @throws StreamCorruptedException
+   *   when the file does not hold a trace we understand.
+   * @throws EOFException
+   *   when the file ends part way through the header.
+   */
+  public static Trace read(Path file) throws IOException {
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+      buf.limit(0);
+      fill(in, buf);
+      if (buf.remaining() < HEADER_BYTES) {
+        throw new EOFException("trace ends in its header");
+      } // if
+      if (buf.getInt() != MAGIC) {
+        throw new StreamCorruptedException("not a trace");
+      } // if
+      int version = buf.getInt();
+      if (version != VERSION) {
+        throw new StreamCorruptedException("unknown version: " + version);
+      } // if
+      Trace trace = new Trace(buf.getLong());
+      long time = 0;
+      while (true) {
+        if (buf.remaining() < MAXIMUM_RECORD_BYTES) {
+          fill(in, buf);
+          if (!buf.hasRemaining()) {
+            break;
+          } // if
+        } // if
+        try {
+          byte op = buf.get();
+          long key = readVarint(buf);
+          long delta = readVarint(buf);
+          if ((op < SET) || (op > REMOVE) || (key < 0) || (key > Integer.MAX_VALUE)) {
+            throw new StreamCorruptedException("illegal record at operation " + trace.count);
+          } // if
+          time += delta;
+          trace.add(op, (int) key, time);
+        } catch (BufferUnderflowException e) {
+          // A torn record at the end of the file.
+          break;
+        } // try/catch
+      } // while
+      return trace;
+    } // try
+  } // read(Path)
+
+  /**
+   * Get the number of operations.
+   */
+  public int size() {
+    return this.count;
+  } // size()
+
+  /**
+   * Get the number of distinct keys.
+   */
+  public int keyCount() {
+    return this.keyCount;
+  } // keyCount()
+
+  /**
+   * Get the time between the first operation and the last, in
+   * nanoseconds.
+   */
+  public long duration() {
+    return (this.count == 0) ? 0 : this.times[this.count - 1];
+  } // duration()
+
+  /**
+   * Describe the trace: its length, keys and mix of operations.
+   */
+  public String toString() {
+    long[] mix = new long[OP_NAMES.length];
+    for (int i = 0; i < this.count; i++) {
+      mix[this.ops[i]]++;
+    } // for
+    StringBuilder str = new StringBuilder();
+    str.append(String.format("%,d operations on %,d keys over %.3f s (", this.count,
+        this.keyCount, this.duration() / 1e9));
+    for (int op = 0; op < mix.length; op++) {
+      str.append((op == 0) ? "" : ", ").append(OP_NAMES[op]).append(' ');
+      str.append(String.format("%.1f%%", (this.count == 0) ? 0.0 : 100.0 * mix[op] / this.count));
+    } // for
+    return str.append(')').toString();
+  } // toString()
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Add an operation.
+   */
+  void add(byte op, int key, long time) {
+    if (this.count == this.ops.length) {
+      int capacity = this.count * 2;
+      this.ops = Arrays.copyOf(this.ops, capacity);
+      this.keys = Arrays.copyOf(this.keys, capacity);
+      this.times = Arrays.copyOf(this.times, capacity);
+    } // if
+    this.ops[this.count] = op;
+    this.keys[this.count] = key;
+    this.times[this.count] = time;
+    this.keyCount = Math.max(this.keyCount, key + 1);
+    this.count++;
+  } // add(byte, int, long)
+
+  /**
+   * Move what is left in buf (flipped) to the front and read as much
+   * more as fits.
+   */
+  static void fill(FileChannel in, ByteBuffer buf) throws IOException {
+    buf.compact();
+    while (buf.hasRemaining() && (in.read(buf) >= 0)) {
+    } // while
+    buf.flip();
+  } // fill(FileChannel, ByteBuffer)
+
+  /**
+   * Read a varint.
+   *
+   * @throws StreamCorruptedException
+   *   when it is longer than any long.
+   */
+  static long readVarint(ByteBuffer buf) throws StreamCorruptedException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buf.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      } // if
+    } // for
+    throw new StreamCorruptedException("varint is too long");
+  } // readVarint(ByteBuffer)
+
+  /**
+   * Write a non-negative varint.
+   */
+  static void writeVarint(ByteBuffer buf, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buf.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    } // while
+    buf.put((byte) value);
+  } // writeVarint(ByteBuffer, long)
+} // class Trace
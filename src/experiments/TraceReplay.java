@@ -0,0 +1,153 @@
+package experiments;
+
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+
+/**
+ * Replays a recorded trace (see RecordingAssociativeArray) at full
+ * speed against each implementation, and reports throughput and
+ * latency percentiles.
+ *
+ * Each implementation replays the trace several times on fresh tables
+ * to warm up, then once untimed to measure throughput, then once more
+ * timing every operation for the latencies (System.nanoTime costs a
+ * few tens of nanoseconds, which is in the latencies but not the
+ * throughput). The value set for each key is its id. The first warmup
+ * round also notes which lookups hit, so we can check that every
+ * implementation agrees, operation by operation.
+ *
+ * Usage: TraceReplay trace-file [implementation ...]
+ *
+ * @author Lucas Willett
+ */
+public class TraceReplay {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of times we replay the trace before measuring.
+   */
+  static final int WARMUP_ROUNDS = 3;
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Replay a trace.
+   */
+  public static void main(String[] args) throws Exception {
+    PrintWriter pen = new PrintWriter(System.out, true);
+    if (args.length == 0) {
+      pen.println("Usage: TraceReplay trace-file [implementation ...]");
+      pen.println("  where the implementations are " + String.join(", ",
+          MapTarget.IMPLEMENTATIONS));
+      return;
+    } // if
+    Path file = Paths.get(args[0]);
+    String[] impls = MapTarget.IMPLEMENTATIONS;
+    if (args.length > 1) {
+      impls = new String[args.length - 1];
+      System.arraycopy(args, 1, impls, 0, impls.length);
+    } // if
+    replayAll(Trace.read(file), impls, pen);
+  } // main(String[])
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Replay trace against each of impls, printing a line for each.
+   *
+   * @throws IllegalStateException
+   *   when two implementations disagree about which lookups hit.
+   */
+  public static void replayAll(Trace trace, String[] impls, PrintWriter pen) {
+    pen.println(trace);
+    Integer[] ids = new Integer[trace.keyCount()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = i;
+    } // for
+    String first = null;
+    BitSet expected = null;
+    for (String impl : impls) {
+      BitSet found = new BitSet(trace.size());
+      replay(trace, MapTarget.create(impl), ids, null, found);
+      if (expected == null) {
+        first = impl;
+        expected = found;
+      } else if (!found.equals(expected)) {
+        found.xor(expected);
+        int op = found.nextSetBit(0);
+        throw new IllegalStateException(impl + " and " + first
+            + " disagree about operation " + op + ", " + Trace.OP_NAMES[trace.ops[op]]
+            + "(" + trace.keys[op] + ")");
+      } // if/else
+      for (int round = 1; round < WARMUP_ROUNDS; round++) {
+        replay(trace, MapTarget.create(impl), ids, null);
+      } // for
+      long start = System.nanoTime();
+      replay(trace, MapTarget.create(impl), ids, null);
+      long nanos = System.nanoTime() - start;
+      LatencyHistogram latencies = new LatencyHistogram();
+      replay(trace, MapTarget.create(impl), ids, latencies);
+      pen.printf("%-26s %,12.0f ops/s  ", impl, trace.size() * 1e9 / Math.max(nanos, 1));
+      latencies.print(pen);
+    } // for
+  } // replayAll(Trace, String[], PrintWriter)
+
+  /**
+   * Replay trace against target, recording the time each operation
+   * takes in latencies unless it is null. Returns the number of gets
+   * and hasKeys that found their key.
+   */
+  public static long replay(Trace trace, MapTarget target, Integer[] ids,
+      LatencyHistogram latencies) {
+    return replay(trace, target, ids, latencies, null);
+  } // replay(Trace, MapTarget, Integer[], LatencyHistogram)
+
+  /**
+   * Replay trace against target as above, and also, unless found is
+   * null, set bit i of found for each operation i that is a get or
+   * hasKey that found its key.
+   */
+  public static long replay(Trace trace, MapTarget target, Integer[] ids,
+      LatencyHistogram latencies, BitSet found) {
+    byte[] ops = trace.ops;
+    int[] keys = trace.keys;
+    int count = trace.size();
+    long hits = 0;
+    for (int i = 0; i < count; i++) {
+      Integer key = ids[keys[i]];
+      long start = (latencies == null) ? 0 : System.nanoTime();
+      boolean hit = false;
+      switch (ops[i]) {
+        case Trace.SET:
+          target.set(key, key);
+          break;
+        case Trace.GET:
+          hit = target.get(key) != null;
+          break;
+        case Trace.HAS_KEY:
+          hit = target.hasKey(key);
+          break;
+        default:
+          target.remove(key);
+      } // switch
+      if (latencies != null) {
+        latencies.record(System.nanoTime() - start);
+      } // if
+      if (hit) {
+        hits++;
+        if (found != null) {
+          found.set(i);
+        } // if
+      } // if
+    } // for
+    return hits;
+  } // replay(Trace, MapTarget, Integer[], LatencyHistogram, BitSet)
+} // class TraceReplay
@@ -0,0 +1,100 @@
+package experiments;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes operations to a trace file (see Trace for the format),
+ * buffering them in memory and writing them out in large blocks.
+ * Not thread-safe.
+ *
+ * @author Lucas Willett
+ */
+public class TraceWriter implements Closeable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The size of the buffer.
+   */
+  static final int BUFFER_SIZE = 1 << 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where we write.
+   */
+  final FileChannel out;
+
+  /**
+   * Records not yet written.
+   */
+  final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /**
+   * When the last record happened (in System.nanoTime), or -1 before
+   * the first.
+   */
+  long last = -1;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Start a new trace in file, replacing whatever is there.
+   */
+  public TraceWriter(Path file) throws IOException {
+    this.out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    this.buffer.putInt(Trace.MAGIC).putInt(Trace.VERSION).putLong(System.currentTimeMillis());
+  } // TraceWriter(Path)
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Record that op (one of Trace.SET and the like) happened to the
+   * key with the given id at time nanos (from System.nanoTime).
+   */
+  public void record(byte op, int key, long nanos) throws IOException {
+    if (this.buffer.remaining() < Trace.MAXIMUM_RECORD_BYTES) {
+      this.flush();
+    } // if
+    long delta = (this.last == -1) ? 0 : Math.max(0, nanos - this.last);
+    this.last = nanos;
+    this.buffer.put(op);
+    Trace.writeVarint(this.buffer, key);
+    Trace.writeVarint(this.buffer, delta);
+  } // record(byte, int, long)
+
+  /**
+   * Write out everything recorded so far.
+   */
+  public void flush() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.out.write(this.buffer);
+    } // while
+    this.buffer.clear();
+  } // flush()
+
+  /**
+   * Write out everything recorded and close the file.
+   */
+  public void close() throws IOException {
+    try {
+      this.flush();
+    } finally {
+      this.out.close();
+    } // try/finally
+  } // close()
+} // class TraceWriter
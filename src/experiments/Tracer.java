@@ -0,0 +1,344 @@
+package experiments;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import structures.AssociativeArray;
+
+/**
+ * Records operations on associative arrays as events in a fixed ring
+ * buffer and prints them from a background thread, so that the
+ * threads doing the work never format, print or block.
+ *
+ * Each event is the same size: a time, an operation, and references
+ * to the array's name, the key and the result. Any number of threads
+ * may record at once. A thread claims a slot by advancing `tail` with
+ * a compare-and-set, fills it in, and then publishes it by storing
+ * its sequence number in `published`; the printing thread follows
+ * along behind, reading each slot once its sequence number appears.
+ * When the buffer is full the event is dropped (and counted) rather
+ * than making the recording thread wait. So is an event recorded once
+ * the tracer is closing, since the printing thread may already have
+ * stopped.
+ *
+ * To keep the cost down further, we can record just one operation in
+ * sampleEvery (chosen at random), and print at most
+ * maxLinesPerSecond lines each second, counting the rest.
+ *
+ * Keys and results are turned into strings by the printing thread, so
+ * they should not change once recorded.
+ *
+ * @author Lucas Willett
+ */
+public class Tracer implements AutoCloseable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  static final byte SET = 0;
+  static final byte GET = 1;
+  static final byte HAS_KEY = 2;
+  static final byte REMOVE = 3;
+  static final byte SIZE = 4;
+
+  /**
+   * The operation in a slot whose event was dropped after the slot was
+   * claimed. The printing thread skips it.
+   */
+  static final byte DROPPED = -1;
+
+  /**
+   * What each operation is called when printed.
+   */
+  static final String[] OP_NAMES = { "set", "get", "hasKey", "remove", "size" };
+
+  /**
+   * How long the printing thread sleeps when there is nothing to
+   * print.
+   */
+  static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where we print events.
+   */
+  final PrintWriter pen;
+
+  /**
+   * The number of slots minus one (the number of slots is a power of
+   * two).
+   */
+  final int mask;
+
+  /**
+   * The parts of each event, one array per part.
+   */
+  final long[] times;
+  final byte[] ops;
+  final Object[] names;
+  final Object[] keys;
+  final Object[] results;
+
+  /**
+   * published[i] is the sequence number of the last event written to
+   * slot i, or -1 if none has been.
+   */
+  final AtomicLongArray published;
+
+  /**
+   * The sequence number of the next event to be claimed.
+   */
+  final AtomicLong tail = new AtomicLong();
+
+  /**
+   * The sequence number of the next event to be printed. Only the
+   * printing thread changes it.
+   */
+  final AtomicLong head = new AtomicLong();
+
+  /**
+   * The number of events dropped because the buffer was full.
+   */
+  final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * We record one operation in this many.
+   */
+  final int sampleEvery;
+
+  /**
+   * The most lines we print in a second.
+   */
+  final int maxLinesPerSecond;
+
+  /**
+   * The number of events we did not print to stay under
+   * maxLinesPerSecond. Only the printing thread changes it.
+   */
+  volatile long suppressed;
+
+  /**
+   * When we started the tracer, so times can be printed relative to it.
+   */
+  final long start = System.nanoTime();
+
+  /**
+   * The thread that prints events.
+   */
+  final Thread printer;
+
+  /**
+   * Whether close has been called.
+   */
+  volatile boolean closed;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a tracer that prints every event to pen, with room for
+   * (at least) capacity events in flight.
+   */
+  public Tracer(PrintWriter pen, int capacity) {
+    this(pen, capacity, 1, Integer.MAX_VALUE);
+  } // Tracer(PrintWriter, int)
+
+  /**
+   * Create a tracer that records one operation in sampleEvery and
+   * prints at most maxLinesPerSecond of them a second to pen, with
+   * room for (at least) capacity events in flight.
+   *
+   * @throws IllegalArgumentException
+   *   when any of the numbers is less than one.
+   */
+  public Tracer(PrintWriter pen, int capacity, int sampleEvery, int maxLinesPerSecond) {
+    if ((capacity < 1) || (capacity > (1 << 30)) || (sampleEvery < 1)
+        || (maxLinesPerSecond < 1)) {
+      throw new IllegalArgumentException("illegal capacity, sampling or rate: " + capacity
+          + ", " + sampleEvery + ", " + maxLinesPerSecond);
+    } // if
+    int slots = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.pen = pen;
+    this.mask = slots - 1;
+    this.times = new long[slots];
+    this.ops = new byte[slots];
+    this.names = new Object[slots];
+    this.keys = new Object[slots];
+    this.results = new Object[slots];
+    this.published = new AtomicLongArray(slots);
+    for (int i = 0; i < slots; i++) {
+      this.published.set(i, -1);
+    } // for
+    this.sampleEvery = sampleEvery;
+    this.maxLinesPerSecond = maxLinesPerSecond;
+    this.printer = new Thread(this::print, "tracer");
+    this.printer.setDaemon(true);
+    this.printer.start();
+  } // Tracer(PrintWriter, int, int, int)
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Determine if the next operation should be recorded. Callers check
+   * this before doing any work to build an event.
+   */
+  public boolean sample() {
+    return !this.closed && ((this.sampleEvery == 1)
+        || (ThreadLocalRandom.current().nextInt(this.sampleEvery) == 0));
+  } // sample()
+
+  /**
+   * Record an event. For set, the result is the new value; for a get
+   * that missed, it is AssociativeArray.NOT_FOUND. Never blocks; drops
+   * the event if the buffer is full or the tracer is closed.
+   */
+  public void record(String name, byte op, Object key, Object result) {
+    long seq;
+    do {
+      seq = this.tail.get();
+      if (this.closed || (seq - this.head.get() > this.mask)) {
+        this.dropped.incrementAndGet();
+        return;
+      } // if
+    } while (!this.tail.compareAndSet(seq, seq + 1));
+    int i = (int) seq & this.mask;
+    if (this.closed) {
+      // close came in while we claimed the slot, and the printer may
+      // have caught up with tail and stopped without seeing it. Count
+      // the event as dropped, but still publish the slot (as DROPPED)
+      // in case the printer is waiting on it.
+      this.dropped.incrementAndGet();
+      this.ops[i] = DROPPED;
+    } else {
+      this.times[i] = System.nanoTime();
+      this.ops[i] = op;
+      this.names[i] = name;
+      this.keys[i] = key;
+      this.results[i] = result;
+    } // if/else
+    this.published.lazySet(i, seq);
+  } // record(String, byte, Object, Object)
+
+  /**
+   * Get the number of events dropped because the buffer was full.
+   */
+  public long dropped() {
+    return this.dropped.get();
+  } // dropped()
+
+  /**
+   * Get the number of events recorded but not printed, to stay under
+   * the rate limit.
+   */
+  public long suppressed() {
+    return this.suppressed;
+  } // suppressed()
+
+  /**
+   * Stop recording, print whatever has been recorded, and wait for the
+   * printing thread to finish. If we are interrupted while waiting, we
+   * stop waiting and leave the thread's interrupt status set.
+   */
+  public void close() {
+    this.closed = true;
+    LockSupport.unpark(this.printer);
+    try {
+      this.printer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } // try/catch
+  } // close()
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Print events as they are published, until we are closed and have
+   * caught up.
+   */
+  void print() {
+    long seq = this.head.get();
+    long window = System.nanoTime();
+    long lines = 0;
+    long quiet = 0;
+    while (true) {
+      boolean closing = this.closed;
+      int i = (int) seq & this.mask;
+      if (this.published.get(i) != seq) {
+        this.pen.flush();
+        if (closing && (seq == this.tail.get())) {
+          break;
+        } // if
+        LockSupport.parkNanos(IDLE_NANOS);
+        continue;
+      } // if
+      if (this.ops[i] == DROPPED) {
+        this.head.lazySet(++seq);
+        continue;
+      } // if
+      long time = this.times[i];
+      if (time - window >= TimeUnit.SECONDS.toNanos(1)) {
+        if (quiet > 0) {
+          this.pen.println("  (" + quiet + " events not shown)");
+        } // if
+        window = time;
+        lines = 0;
+        quiet = 0;
+      } // if
+      if (lines < this.maxLinesPerSecond) {
+        this.printEvent(i);
+        lines++;
+      } else {
+        quiet++;
+        this.suppressed++;
+      } // if/else
+      this.names[i] = null;
+      this.keys[i] = null;
+      this.results[i] = null;
+      this.head.lazySet(++seq);
+    } // while
+    if (quiet > 0) {
+      this.pen.println("  (" + quiet + " events not shown)");
+    } // if
+    long lost = this.dropped.get();
+    if (lost > 0) {
+      this.pen.println("  (" + lost + " events dropped)");
+    } // if
+    this.pen.flush();
+  } // print()
+
+  /**
+   * Print the event in slot i.
+   */
+  void printEvent(int i) {
+    byte op = this.ops[i];
+    Object key = this.keys[i];
+    Object result = this.results[i];
+    this.pen.printf("%12.3f ms %s.%s(", (this.times[i] - this.start) / 1e6, this.names[i],
+        OP_NAMES[op]);
+    switch (op) {
+      case SET:
+        this.pen.println(key + ", " + result + ")");
+        break;
+      case REMOVE:
+        this.pen.println(key + ")");
+        break;
+      case SIZE:
+        this.pen.println(") = " + result);
+        break;
+      default:
+        this.pen.println(key + ") = "
+            + ((result == AssociativeArray.NOT_FOUND) ? "** ERROR **" : result));
+    } // switch
+  } // printEvent(int)
+} // class Tracer
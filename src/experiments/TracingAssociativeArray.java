@@ -0,0 +1,118 @@
+package experiments;
+
+import structures.AssociativeArray;
+import structures.KeyNotFoundException;
+import structures.NullKeyException;
+
+/**
+ * An extension of the AssociativeArray class that, like
+ * ReportingAssociativeArray, reports each step it takes, but hands the
+ * reports to a Tracer instead of printing them. Each operation costs a
+ * sampling check and, when sampled, one event in the tracer's buffer,
+ * so tracing can stay on under real load.
+ *
+ * Unlike ReportingAssociativeArray, it does not print the contents
+ * after each change.
+ *
+ * @author Lucas Willett
+ */
+public class TracingAssociativeArray<K, V> extends AssociativeArray<K, V> {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The "name" of this associative array (at least as reported to the user).
+   */
+  final String name;
+
+  /**
+   * Where we record events.
+   */
+  final Tracer tracer;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new TracingAssociativeArray named `name` that records its
+   * operations with `tracer`.
+   */
+  public TracingAssociativeArray(String name, Tracer tracer) {
+    super();
+    this.name = name;
+    this.tracer = tracer;
+  } // TracingAssociativeArray(String, Tracer)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Set a value.
+   *
+   * @throws NullKeyException
+   *   when the key is null.
+   */
+  public void set(K key, V value) throws NullKeyException {
+    if (this.tracer.sample()) {
+      this.tracer.record(this.name, Tracer.SET, key, value);
+    } // if
+    super.set(key, value);
+  } // set(K,V)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws KeyNotFoundException
+   *   when the key does not appear in the associative array.
+   */
+  public V get(K key) throws KeyNotFoundException {
+    if (!this.tracer.sample()) {
+      return super.get(key);
+    } // if
+    try {
+      V value = super.get(key);
+      this.tracer.record(this.name, Tracer.GET, key, value);
+      return value;
+    } catch (KeyNotFoundException knfe) {
+      this.tracer.record(this.name, Tracer.GET, key, AssociativeArray.NOT_FOUND);
+      throw knfe;
+    } // try/catch
+  } // get(K)
+
+  /**
+   * Determine if key appears in the associative array.
+   */
+  public boolean hasKey(K key) {
+    boolean result = super.hasKey(key);
+    if (this.tracer.sample()) {
+      this.tracer.record(this.name, Tracer.HAS_KEY, key, result);
+    } // if
+    return result;
+  } // hasKey(K)
+
+  /**
+   * Remove the key/value pair associated with a key. If the key does
+   * not appear in the associative array, does nothing.
+   */
+  public void remove(K key) {
+    if (this.tracer.sample()) {
+      this.tracer.record(this.name, Tracer.REMOVE, key, null);
+    } // if
+    super.remove(key);
+  } // remove(K)
+
+  /**
+   * Determine how many values are in the associative array.
+   */
+  public int size() {
+    int size = super.size();
+    if (this.tracer.sample()) {
+      this.tracer.record(this.name, Tracer.SIZE, null, size);
+    } // if
+    return size;
+  } // size()
+} // TracingAssociativeArray
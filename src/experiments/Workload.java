@@ -0,0 +1,222 @@
+package experiments;
+
+/**
+ * A YCSB-style workload: how many keys to load, how many operations
+ * to run afterwards, what fraction of them are each kind, and which
+ * keys they touch (see KeyChooser).
+ *
+ * The presets follow YCSB's core workloads, except that we have no
+ * ordered scans, so there is no workload E:
+ *
+ *   A  update heavy: 50% read, 50% update, zipfian
+ *   B  read mostly: 95% read, 5% update, zipfian
+ *   C  read only: 100% read, zipfian
+ *   D  read latest: 95% read, 5% insert, latest
+ *   F  read-modify-write: 50% read, 50% read-modify-write, zipfian
+ *
+ * plus one of our own, since YCSB's workloads never delete:
+ *
+ *   G  churn: 50% read, 25% insert, 25% delete, uniform
+ *
+ * @author Lucas Willett
+ */
+public class Workload {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The kinds of operation.
+   */
+  static final int READ = 0;
+  static final int UPDATE = 1;
+  static final int INSERT = 2;
+  static final int DELETE = 3;
+  static final int READ_MODIFY_WRITE = 4;
+
+  /**
+   * What each kind is called, both when printed and when set with
+   * set (as e.g. "read=0.9").
+   */
+  static final String[] OP_NAMES = { "read", "update", "insert", "delete", "rmw" };
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The name of the preset we started from.
+   */
+  String name;
+
+  /**
+   * The number of keys loaded before the operations start.
+   */
+  int records = 1000000;
+
+  /**
+   * The number of operations, across all threads.
+   */
+  int operations = 1000000;
+
+  /**
+   * The relative frequency of each kind of operation.
+   */
+  double[] proportions = new double[OP_NAMES.length];
+
+  /**
+   * The name of the key distribution.
+   */
+  String distribution = KeyChooser.ZIPFIAN;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create the named preset.
+   *
+   * @throws IllegalArgumentException
+   *   when there is no such preset.
+   */
+  public Workload(String name) {
+    this.name = name;
+    switch (name) {
+      case "A":
+        this.proportions[READ] = 0.5;
+        this.proportions[UPDATE] = 0.5;
+        break;
+      case "B":
+        this.proportions[READ] = 0.95;
+        this.proportions[UPDATE] = 0.05;
+        break;
+      case "C":
+        this.proportions[READ] = 1.0;
+        break;
+      case "D":
+        this.proportions[READ] = 0.95;
+        this.proportions[INSERT] = 0.05;
+        this.distribution = KeyChooser.LATEST;
+        break;
+      case "F":
+        this.proportions[READ] = 0.5;
+        this.proportions[READ_MODIFY_WRITE] = 0.5;
+        break;
+      case "G":
+        this.proportions[READ] = 0.5;
+        this.proportions[INSERT] = 0.25;
+        this.proportions[DELETE] = 0.25;
+        this.distribution = KeyChooser.UNIFORM;
+        break;
+      default:
+        throw new IllegalArgumentException("unknown workload: " + name);
+    } // switch
+  } // Workload(String)
+
+  // +------------------+--------------------------------------------
+  // | Standard Methods |
+  // +------------------+
+
+  /**
+   * Describe the workload.
+   */
+  public String toString() {
+    StringBuilder str = new StringBuilder();
+    str.append(String.format("workload %s: %,d records, %,d operations, %s;", this.name,
+        this.records, this.operations, this.distribution));
+    double total = this.total();
+    for (int op = 0; op < OP_NAMES.length; op++) {
+      if (this.proportions[op] > 0) {
+        str.append(String.format(" %s %.0f%%", OP_NAMES[op],
+            100 * this.proportions[op] / total));
+      } // if
+    } // for
+    return str.toString();
+  } // toString()
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Change one setting: records, operations, distribution, or the
+   * proportion of one kind of operation (read, update, insert, delete
+   * or rmw).
+   *
+   * @throws IllegalArgumentException
+   *   when there is no such setting or the value does not suit it.
+   */
+  public void set(String setting, String value) {
+    switch (setting) {
+      case "records":
+        this.records = positive(setting, value);
+        return;
+      case "operations":
+        this.operations = positive(setting, value);
+        return;
+      case "distribution":
+        KeyChooser.create(value);
+        this.distribution = value;
+        return;
+      default:
+        for (int op = 0; op < OP_NAMES.length; op++) {
+          if (OP_NAMES[op].equals(setting)) {
+            double proportion = Double.parseDouble(value);
+            if (!(proportion >= 0)) {
+              throw new IllegalArgumentException("illegal " + setting + ": " + value);
+            } // if
+            this.proportions[op] = proportion;
+            return;
+          } // if
+        } // for
+        throw new IllegalArgumentException("unknown setting: " + setting);
+    } // switch
+  } // set(String, String)
+
+  /**
+   * Choose the kind of the next operation, given a uniformly random
+   * number from 0 (inclusive) to 1. If every proportion is 0, every
+   * operation is a read.
+   */
+  public int choose(double random) {
+    double point = random * this.total();
+    int last = READ;
+    for (int op = 0; op < OP_NAMES.length; op++) {
+      if (this.proportions[op] > 0) {
+        if (point < this.proportions[op]) {
+          return op;
+        } // if
+        point -= this.proportions[op];
+        last = op;
+      } // if
+    } // for
+    // Only rounding gets us here.
+    return last;
+  } // choose(double)
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Add up the proportions.
+   */
+  double total() {
+    double total = 0;
+    for (double proportion : this.proportions) {
+      total += proportion;
+    } // for
+    return total;
+  } // total()
+
+  /**
+   * Parse a positive int setting.
+   */
+  static int positive(String setting, String value) {
+    int n = Integer.parseInt(value.replace("_", "").replace(",", ""));
+    if (n < 1) {
+      throw new IllegalArgumentException("illegal " + setting + ": " + value);
+    } // if
+    return n;
+  } // positive(String, String)
+} // class Workload
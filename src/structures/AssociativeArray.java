@@ -2,11 +2,34 @@ package structures;
 
 import static java.lang.reflect.Array.newInstance;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
 /**
  * A basic implementation of Associative Arrays with keys of type K
  * and values of type V. Associative Arrays store key/value pairs
  * and permit you to look up values by key.
  *
+ * The pairs live in an open-addressing hash table: each key starts
+ * at the slot chosen by its (spread) hash code and probes linearly
+ * from there. Removed pairs stay behind with a null key so that the
+ * probe sequences of other keys are not broken.
+ *
+ * Clones share their table with the original until one of them
+ * changes it; the first change copies the table.
+ *
  * @author Lucas Willett
  * @author Samuel A. Rebelsky
  */
@@ -20,6 +43,32 @@ public class AssociativeArray<K, V> {
    */
   static final int DEFAULT_CAPACITY = 16;
 
+  /**
+   * The default fraction of the slots we fill before growing.
+   */
+  static final double DEFAULT_LOAD_FACTOR = 0.75;
+
+  /**
+   * The largest capacity we will grow to.
+   */
+  static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  /**
+   * The smallest capacity we will shrink to.
+   */
+  static final int MINIMUM_CAPACITY = 2;
+
+  /**
+   * The fraction of the slots that may hold removed pairs before we
+   * compact the table.
+   */
+  static final double TOMBSTONE_RATIO = 0.25;
+
+  /**
+   * The marker lookup returns for keys that do not appear.
+   */
+  public static final Object NOT_FOUND = new Object();
+
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
@@ -29,16 +78,57 @@ public class AssociativeArray<K, V> {
    */
   int size;
 
-    /**
-   * The capacity of the associative array (the number of key/value pairs).
+  /**
+   * The capacity of the associative array (the number of slots in
+   * `pairs`, always a power of two).
    */
   int capacity;
 
+  /**
+   * The number of non-null slots in `pairs`, including removed pairs.
+   */
+  int used;
+
+  /**
+   * The number of removed pairs (pairs with a null key) in `pairs`.
+   * Their slots are reused by later calls to set.
+   */
+  int removed;
+
+  /**
+   * The fraction of the slots we fill before growing.
+   */
+  double loadFactor;
+
+  /**
+   * The number of used slots at which we grow.
+   */
+  int threshold;
+
   /**
    * The array of key/value pairs.
    */
   KVPair<K, V> pairs[];
 
+  /**
+   * The number of associative arrays that share `pairs` (and the
+   * KVPairs in it). Only an array that is the sole owner may change
+   * them in place.
+   */
+  AtomicInteger owners;
+
+  /**
+   * Whether we throw the shared, stackless exceptions rather than
+   * fresh ones.
+   */
+  boolean stacklessExceptions;
+
+  /**
+   * What we have counted so far, or null when we are not recording
+   * metrics (see recordMetrics).
+   */
+  Metrics metrics;
+
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -46,48 +136,98 @@ public class AssociativeArray<K, V> {
   /**
    * Create a new, empty associative array.
    */
-  @SuppressWarnings({ "unchecked" })
   public AssociativeArray() {
-    // Creating new arrays is sometimes a PITN.
-    this.pairs = (KVPair<K, V>[]) newInstance((new KVPair<K, V>()).getClass(),
-        DEFAULT_CAPACITY);
-    this.size = 0;
-    this.capacity = DEFAULT_CAPACITY;
+    this(DEFAULT_LOAD_FACTOR);
   } // AssociativeArray()
 
+  /**
+   * Create a new, empty associative array that grows once the given
+   * fraction of its slots are in use.
+   *
+   * @throws IllegalArgumentException
+   *   when loadFactor is not strictly between 0 and 1.
+   */
+  public AssociativeArray(double loadFactor) {
+    if (!(loadFactor > 0 && loadFactor < 1)) {
+      throw new IllegalArgumentException("illegal load factor: " + loadFactor);
+    } // if
+    this.loadFactor = loadFactor;
+    this.allocate(DEFAULT_CAPACITY);
+  } // AssociativeArray(double)
+
+  /**
+   * Create a new, empty associative array with room for expectedSize
+   * pairs before it has to grow.
+   *
+   * @throws IllegalArgumentException
+   *   when expectedSize is negative.
+   */
+  public AssociativeArray(int expectedSize) {
+    this(expectedSize, DEFAULT_LOAD_FACTOR);
+  } // AssociativeArray(int)
+
+  /**
+   * Create a new, empty associative array with room for expectedSize
+   * pairs before it grows once the given fraction of its slots are
+   * in use.
+   *
+   * @throws IllegalArgumentException
+   *   when expectedSize is negative or loadFactor is not strictly
+   *   between 0 and 1.
+   */
+  public AssociativeArray(int expectedSize, double loadFactor) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("illegal expected size: " + expectedSize);
+    } // if
+    if (!(loadFactor > 0 && loadFactor < 1)) {
+      throw new IllegalArgumentException("illegal load factor: " + loadFactor);
+    } // if
+    this.loadFactor = loadFactor;
+    this.allocate(Math.max(DEFAULT_CAPACITY, tableSizeFor(expectedSize, loadFactor)));
+  } // AssociativeArray(int, double)
+
+  /**
+   * Create an array that shares original's table (see clone), without
+   * allocating one of its own.
+   */
+  private AssociativeArray(AssociativeArray<K, V> original) {
+    original.owners.incrementAndGet();
+    this.owners = original.owners;
+    this.pairs = original.pairs;
+    this.size = original.size;
+    this.capacity = original.capacity;
+    this.used = original.used;
+    this.removed = original.removed;
+    this.loadFactor = original.loadFactor;
+    this.threshold = original.threshold;
+    this.stacklessExceptions = original.stacklessExceptions;
+    this.metrics = (original.metrics == null) ? null : new Metrics();
+  } // AssociativeArray(AssociativeArray)
+
   // +------------------+--------------------------------------------
   // | Standard Methods |
   // +------------------+
 
   /**
-   * Create a copy of this AssociativeArray.
+   * Create a copy of this AssociativeArray. The copy takes constant
+   * time: the two share a table until either one changes.
    */
   public AssociativeArray<K, V> clone() {
-    AssociativeArray<K, V> clone = new AssociativeArray<K, V>();
-    clone.pairs = this.pairs;
-    clone.size = this.size;
-    clone.capacity = this.capacity;
-    return clone;
+    return new AssociativeArray<K, V>(this);
   } // clone()
 
   /**
    * Convert the array to a string.
    */
   public String toString() {
-    String str = "{ ";
-    if(this.size == 0){
-      return "{}";
-    } //if
-    int i = 0;
-    do {
-      if((this.pairs[i] != null) && (this.pairs[i].key != null)){
-        str = str+ this.pairs[i].key + ": " + this.pairs[i].value + ", " ;
-      } //if
-      i++;
-    } while(i < this.capacity); //do while
-    str = str.substring(0, str.length() -2);
-    str = str + " }";
-    return str; 
+    StringBuilder str = new StringBuilder();
+    try {
+      this.render(str);
+    } catch (IOException e) {
+      // StringBuilders do not throw IOExceptions.
+      throw new UncheckedIOException(e);
+    } // try/catch
+    return str.toString();
   } // toString()
 
   // +----------------+----------------------------------------------
@@ -97,27 +237,169 @@ public class AssociativeArray<K, V> {
   /**
    * Set the value associated with key to value. Future calls to
    * get(key) will return value.
+   *
+   * @throws NullKeyException
+   *   when the key is null.
    */
-  @SuppressWarnings({"unchecked", "rawtypes"})
   public void set(K key, V value) throws NullKeyException {
-    if(this.hasKey(key)){
-      int key_no = find(key);
-      this.pairs[key_no].value = value;
-      return;
-    } else { //if else
-      if(this.isFull()){
-        this.expand();
-      } //if
-      for(int i = 0; i < this.capacity; i++){
-        if(this.pairs[i] == null){
-          this.pairs[i] = new KVPair(key, value);
-          this.size++;
-          break;
-        } //if
-      } //for
-    } //else
+    if (key == null) {
+      throw this.stacklessExceptions
+          ? NullKeyException.stackless()
+          : new NullKeyException("null keys are not permitted");
+    } // if
+    this.unshare();
+    this.put(key, value);
   } // set(K,V)
 
+  /**
+   * Set the value associated with each keys[i] to values[i]. The
+   * table grows (at most) once, up front, rather than as it fills.
+   *
+   * @throws NullKeyException
+   *   when one of the keys is null, in which case nothing changes.
+   * @throws IllegalArgumentException
+   *   when the arrays differ in length.
+   */
+  public void setAll(K[] keys, V[] values) throws NullKeyException {
+    if (keys.length != values.length) {
+      throw new IllegalArgumentException("have " + keys.length + " keys but "
+          + values.length + " values");
+    } // if
+    for (K key : keys) {
+      if (key == null) {
+        throw this.stacklessExceptions
+            ? NullKeyException.stackless()
+            : new NullKeyException("null keys are not permitted");
+      } // if
+    } // for
+    this.ensureCapacity(this.size + keys.length);
+    for (int i = 0; i < keys.length; i++) {
+      this.put(keys[i], values[i]);
+    } // for
+  } // setAll(K[], V[])
+
+  /**
+   * Set the value associated with each key to the corresponding value,
+   * taking keys and values from the two iterables in step. If keys is
+   * a Collection, the table grows (at most) once, up front.
+   *
+   * @throws NullKeyException
+   *   when one of the keys is null; the pairs before it are set.
+   * @throws IllegalArgumentException
+   *   when the iterables differ in length; the pairs up to the end of
+   *   the shorter one are set.
+   */
+  public void setAll(Iterable<? extends K> keys, Iterable<? extends V> values)
+      throws NullKeyException {
+    if (keys instanceof Collection) {
+      this.ensureCapacity(this.size + ((Collection<? extends K>) keys).size());
+    } else {
+      this.unshare();
+    } // if/else
+    Iterator<? extends K> k = keys.iterator();
+    Iterator<? extends V> v = values.iterator();
+    while (k.hasNext() && v.hasNext()) {
+      K key = k.next();
+      if (key == null) {
+        throw this.stacklessExceptions
+            ? NullKeyException.stackless()
+            : new NullKeyException("null keys are not permitted");
+      } // if
+      this.put(key, v.next());
+    } // while
+    if (k.hasNext() || v.hasNext()) {
+      throw new IllegalArgumentException("have different numbers of keys and values");
+    } // if
+  } // setAll(Iterable, Iterable)
+
+  /**
+   * Copy every pair of other into this array, replacing the values
+   * of keys that appear in both. The table grows (at most) once.
+   */
+  public void setAll(AssociativeArray<? extends K, ? extends V> other) {
+    this.ensureCapacity(this.size + other.size);
+    for (KVPair<? extends K, ? extends V> pair : other.pairs) {
+      if ((pair != null) && (pair.key != null)) {
+        this.put(pair.key, pair.value);
+      } // if
+    } // for
+  } // setAll(AssociativeArray)
+
+  /**
+   * Look up each keys[i], storing its value in values[i] (or null if
+   * it does not appear). Returns the number of keys found.
+   *
+   * @throws IllegalArgumentException
+   *   when values is shorter than keys.
+   */
+  public int getAll(K[] keys, V[] values) {
+    if (values.length < keys.length) {
+      throw new IllegalArgumentException("have " + keys.length + " keys but room for "
+          + values.length + " values");
+    } // if
+    int found = 0;
+    for (int i = 0; i < keys.length; i++) {
+      int key_no = find(keys[i]);
+      if (key_no == -1) {
+        values[i] = null;
+      } else {
+        values[i] = this.pairs[key_no].value;
+        found++;
+      } // if/else
+    } // for
+    return found;
+  } // getAll(K[], V[])
+
+  /**
+   * Remove each of the keys that appears. Compaction, if any, happens
+   * once at the end. Returns the number of pairs removed.
+   */
+  public int removeAll(K[] keys) {
+    return this.removeAll(Arrays.asList(keys));
+  } // removeAll(K[])
+
+  /**
+   * Remove each of the keys that appears. Compaction, if any, happens
+   * once at the end. Returns the number of pairs removed.
+   */
+  public int removeAll(Iterable<? extends K> keys) {
+    int count = 0;
+    for (K key : keys) {
+      int key_no = find(key);
+      if (key_no != -1) {
+        if (this.isShared()) {
+          this.unshare();
+          key_no = this.probe(key);
+        } // if
+        this.pairs[key_no].key = null;
+        this.pairs[key_no].value = null;
+        this.size--;
+        this.removed++;
+        count++;
+        if (this.metrics != null) {
+          this.metrics.removes++;
+        } // if
+      } // if
+    } // for
+    if (this.removed > this.capacity * TOMBSTONE_RATIO) {
+      this.compact();
+    } // if
+    return count;
+  } // removeAll(Iterable)
+
+  /**
+   * Make sure the table can hold expectedSize pairs without growing,
+   * growing it now if need be.
+   */
+  public void ensureCapacity(int expectedSize) {
+    int needed = tableSizeFor(expectedSize, this.loadFactor);
+    if (needed > this.capacity) {
+      this.rehash(needed);
+    } else {
+      this.unshare();
+    } // if/else
+  } // ensureCapacity(int)
+
   /**
    * Get the value associated with key.
    *
@@ -126,38 +408,92 @@ public class AssociativeArray<K, V> {
    *                              appear in the associative array.
    */
   public V get(K key) throws KeyNotFoundException {
-    try {
-      int key_no = find(key);
-      return this.pairs[key_no].value;
-    } catch (Exception e) {
-      throw new KeyNotFoundException();
-    }
+    int key_no = find(key);
+    if (key_no == -1) {
+      throw this.stacklessExceptions
+          ? KeyNotFoundException.stackless()
+          : new KeyNotFoundException();
+    } // if
+    return this.pairs[key_no].value;
   } // get(K)
 
+  /**
+   * Get the value associated with key, or defaultValue if the key is
+   * null or does not appear in the associative array.
+   */
+  public V getOrDefault(K key, V defaultValue) {
+    int key_no = find(key);
+    return (key_no == -1) ? defaultValue : this.pairs[key_no].value;
+  } // getOrDefault(K,V)
+
+  /**
+   * Get the value associated with key, or null if the key is null or
+   * does not appear in the associative array. (Since values may be
+   * null, use lookup to tell the two apart.)
+   */
+  public V getOrNull(K key) {
+    return this.getOrDefault(key, null);
+  } // getOrNull(K)
+
+  /**
+   * Get the value associated with key, or NOT_FOUND if the key is null
+   * or does not appear in the associative array. Unlike getOrNull,
+   * this tells a missing key from one whose value is null.
+   */
+  public Object lookup(K key) {
+    int key_no = find(key);
+    return (key_no == -1) ? NOT_FOUND : this.pairs[key_no].value;
+  } // lookup(K)
+
+  /**
+   * Choose whether get and set throw a shared exception without a
+   * stack trace (see KeyNotFoundException.stackless()) instead of
+   * creating a new one each time. Handy when misses are common and
+   * nobody looks at the stack traces.
+   */
+  public void useStacklessExceptions(boolean stackless) {
+    this.stacklessExceptions = stackless;
+  } // useStacklessExceptions(boolean)
+
+  /**
+   * Choose whether to count lookups, sets, removes, probe lengths and
+   * rebuilds of the table (see metrics). Off by default, when the cost
+   * is a null check here and there. Turning recording on starts the
+   * counts from zero; turning it off discards them.
+   */
+  public void recordMetrics(boolean record) {
+    if (!record) {
+      this.metrics = null;
+    } else if (this.metrics == null) {
+      this.metrics = new Metrics();
+    } // if/else
+  } // recordMetrics(boolean)
+
+  /**
+   * Take a snapshot of the metrics recorded so far and the shape of
+   * the table. The counts are all zero unless we are recording
+   * metrics.
+   */
+  public AssociativeArrayMetrics metrics() {
+    Metrics m = (this.metrics == null) ? new Metrics() : this.metrics;
+    return m.snapshot(this.size, this.capacity, this.removed);
+  } // metrics()
+
   /**
    * Determine if key appears in the associative array. Should
    * return false for the null key.
    */
   public boolean hasKey(K key) {
-    for(int i = 0; i < this.size; i++){
-      if ((this.pairs[i] != null) && (this.pairs[i].key != null) && (this.pairs[i].key.equals(key))){
-        return true;
-      } //if
-    } //for
-    return false;
+    return find(key) != -1;
   } // hasKey(K)
 
-    /**
-   * Determine if an array is maxed capacity
+  /**
+   * Determine if the array has used up its load factor, so that the
+   * next new key forces it to grow.
    */
   public boolean isFull() {
-    for(int i = 0; i < this.capacity; i++){
-      if (this.pairs[i] == null){
-        return false;
-      } //if
-    } //for
-    return true;
-  } // hasKey(K)
+    return this.used >= this.threshold;
+  } // isFull()
 
   /**
    * Remove the key/value pair associated with a key. Future calls
@@ -169,12 +505,39 @@ public class AssociativeArray<K, V> {
     if(key_no == -1){
       return;
     } //if
+    if (this.isShared()) {
+      this.unshare();
+      key_no = this.probe(key);
+    } // if
     this.pairs[key_no].key = null;
     this.pairs[key_no].value = null;
     this.size--;
+    this.removed++;
+    if (this.metrics != null) {
+      this.metrics.removes++;
+    } // if
+    if (this.removed > this.capacity * TOMBSTONE_RATIO) {
+      this.compact();
+    } // if
     return;
   } // remove(K)
 
+  /**
+   * Rebuild the table in place, dropping removed pairs so that
+   * lookups no longer have to probe past them.
+   */
+  public void compact() {
+    this.rehash(this.capacity);
+  } // compact()
+
+  /**
+   * Shrink the table to the smallest capacity that holds the current
+   * pairs without growing, dropping removed pairs along the way.
+   */
+  public void trimToSize() {
+    this.rehash(tableSizeFor(this.size, this.loadFactor));
+  } // trimToSize()
+
   /**
    * Determine how many key/value pairs are in the associative array.
    */
@@ -182,36 +545,385 @@ public class AssociativeArray<K, V> {
     return this.size;
   } // size()
 
+  /**
+   * Write the same text as toString to out, one pair at a time,
+   * without building the whole string first.
+   */
+  public void render(Appendable out) throws IOException {
+    this.render(out, Integer.MAX_VALUE);
+  } // render(Appendable)
+
+  /**
+   * Write the same text as toString to out, but stop after limit
+   * pairs, noting how many were left out. Handy for logging large
+   * arrays.
+   *
+   * @throws IllegalArgumentException
+   *   when limit is negative.
+   */
+  public void render(Appendable out, int limit) throws IOException {
+    if (limit < 0) {
+      throw new IllegalArgumentException("illegal limit: " + limit);
+    } // if
+    if (this.size == 0) {
+      out.append("{}");
+      return;
+    } // if
+    out.append("{ ");
+    int written = 0;
+    for (int i = 0; (i < this.capacity) && (written < limit); i++) {
+      KVPair<K, V> pair = this.pairs[i];
+      if ((pair != null) && (pair.key != null)) {
+        if (written > 0) {
+          out.append(", ");
+        } // if
+        out.append(String.valueOf(pair.key)).append(": ").append(String.valueOf(pair.value));
+        written++;
+      } // if
+    } // for
+    if (written < this.size) {
+      out.append((written > 0) ? ", ... " : "... ").append(Integer.toString(this.size - written))
+          .append(" more");
+    } // if
+    out.append(" }");
+  } // render(Appendable, int)
+
+  /**
+   * Call action on each key and its value, in table order, without
+   * copying any pairs.
+   */
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    for (KVPair<K, V> pair : this.pairs) {
+      if ((pair != null) && (pair.key != null)) {
+        action.accept(pair.key, pair.value);
+      } // if
+    } // for
+  } // forEach(BiConsumer)
+
+  /**
+   * Get a read-only view of the keys. Its spliterator splits the table
+   * evenly, so keys().stream().parallel() divides the work well. The
+   * view is backed by the array; if the array changes while the view
+   * is being traversed, the traversal may or may not see the change.
+   */
+  public Collection<K> keys() {
+    return new View<K>(pair -> pair.key, Spliterator.DISTINCT | Spliterator.NONNULL);
+  } // keys()
+
+  /**
+   * Get a read-only view of the values, like keys().
+   */
+  public Collection<V> values() {
+    return new View<V>(pair -> pair.value, 0);
+  } // values()
+
+  /**
+   * Get a read-only view of the key/value pairs, like keys(). Each
+   * entry is a fresh snapshot of one pair.
+   */
+  public Collection<Map.Entry<K, V>> entries() {
+    return new View<Map.Entry<K, V>>(
+        pair -> new AbstractMap.SimpleImmutableEntry<K, V>(pair.key, pair.value),
+        Spliterator.DISTINCT | Spliterator.NONNULL);
+  } // entries()
+
   // +-----------------+---------------------------------------------
   // | Private Methods |
   // +-----------------+
 
   /**
-   * Expand the underlying array.
+   * Set the value for a non-null key in a table we do not share.
+   */
+  void put(K key, V value) {
+    if (this.metrics != null) {
+      this.metrics.sets++;
+    } // if
+    int i = this.probe(key);
+    if (i >= 0) {
+      this.pairs[i].value = value;
+      return;
+    } // if
+    i = -(i + 1);
+    KVPair<K, V> pair = this.pairs[i];
+    if (pair != null) {
+      // A removed pair; take over its slot.
+      pair.key = key;
+      pair.value = value;
+      this.removed--;
+      this.size++;
+      return;
+    } // if
+    if (this.isFull()) {
+      // Growing moves everything, so the slot we found is stale.
+      this.expand();
+      i = -(this.probe(key) + 1);
+    } // if
+    this.pairs[i] = new KVPair<K, V>(key, value);
+    this.used++;
+    this.size++;
+  } // put(K,V)
+
+  /**
+   * Expand the underlying array, rehashing every remaining pair into
+   * a table twice the size. Removed pairs are dropped along the way;
+   * if they make up enough of the table, dropping them frees enough
+   * room that we rehash at the same size instead.
    */
   void expand() {
-    this.pairs = java.util.Arrays.copyOf(this.pairs, this.pairs.length * 2);
-    this.capacity *= 2;
+    if (this.size < this.threshold / 2) {
+      this.rehash(this.capacity);
+      return;
+    } // if
+    if (this.capacity >= MAXIMUM_CAPACITY) {
+      throw new IllegalStateException("associative array is too large");
+    } // if
+    this.rehash(this.capacity * 2);
   } // expand()
 
   /**
-   * Find the index of the first entry in `pairs` that contains key.
-   * If no such entry is found, throws an exception.
+   * Replace `pairs` with an empty table with newCapacity slots.
+   */
+  @SuppressWarnings({ "unchecked" })
+  void allocate(int newCapacity) {
+    // Creating new arrays is sometimes a PITN.
+    this.pairs = (KVPair<K, V>[]) newInstance((new KVPair<K, V>()).getClass(),
+        newCapacity);
+    this.capacity = newCapacity;
+    this.threshold = (int) Math.min(newCapacity - 1L,
+        (long) (newCapacity * this.loadFactor));
+    this.size = 0;
+    this.used = 0;
+    this.removed = 0;
+    this.owners = new AtomicInteger(1);
+  } // allocate(int)
+
+  /**
+   * Move every live pair into a fresh table with newCapacity slots.
+   */
+  void rehash(int newCapacity) {
+    long start = (this.metrics == null) ? 0 : System.nanoTime();
+    KVPair<K, V>[] old = this.pairs;
+    boolean copy = this.isShared();
+    if (copy) {
+      this.owners.decrementAndGet();
+    } // if
+    this.allocate(newCapacity);
+    int mask = newCapacity - 1;
+    for (KVPair<K, V> pair : old) {
+      if ((pair != null) && (pair.key != null)) {
+        int i = spread(pair.key.hashCode()) & mask;
+        while (this.pairs[i] != null) {
+          i = (i + 1) & mask;
+        } // while
+        this.pairs[i] = copy ? pair.clone() : pair;
+        this.size++;
+      } // if
+    } // for
+    this.used = this.size;
+    if (this.metrics != null) {
+      this.metrics.recordResize(System.nanoTime() - start);
+    } // if
+  } // rehash(int)
+
+  /**
+   * Determine if another associative array shares our table.
+   */
+  boolean isShared() {
+    return this.owners.get() > 1;
+  } // isShared()
+
+  /**
+   * Make sure we are the only owner of our table (and its pairs), by
+   * copying it if it is shared.
+   */
+  void unshare() {
+    if (this.isShared()) {
+      this.rehash(this.capacity);
+    } // if
+  } // unshare()
+
+  /**
+   * Find the index of the entry in `pairs` that contains key.
+   * If no such entry is found, returns -1.
    */
   int find(K key){
-    int index = 0;
-    int has_key = -1;
-    for(int i = 0; i < this.capacity; i++){
-      if ((this.pairs[i] != null) && (this.pairs[i].key != null) && (this.pairs[i].key.equals(key))){
-        has_key = 0;
-        break;
-      } //if
-      index++;
-    } //for
-    if(has_key == -1){
+    if (key == null) {
       return -1;
-    } //if
-    return index;
+    } // if
+    int i = this.probe(key);
+    if (this.metrics != null) {
+      this.metrics.recordLookup(i >= 0);
+    } // if
+    return (i >= 0) ? i : -1;
   } // find(K)
 
+  /**
+   * Walk the probe sequence for a non-null key once. Returns the index
+   * of the entry that contains key if there is one and otherwise
+   * -(slot + 1), where slot is the first removed pair or empty slot
+   * along the way, i.e., where key belongs.
+   */
+  int probe(K key) {
+    int mask = this.capacity - 1;
+    int i = spread(key.hashCode()) & mask;
+    int reusable = -1;
+    int length = 1;
+    KVPair<K, V> pair;
+    while ((pair = this.pairs[i]) != null) {
+      if (pair.key == null) {
+        if (reusable == -1) {
+          reusable = i;
+        } // if
+      } else if (pair.key.equals(key)) {
+        if (this.metrics != null) {
+          this.metrics.recordProbe(length);
+        } // if
+        return i;
+      } // if/else
+      i = (i + 1) & mask;
+      length++;
+    } // while
+    if (this.metrics != null) {
+      this.metrics.recordProbe(length);
+    } // if
+    return -(((reusable == -1) ? i : reusable) + 1);
+  } // probe(K)
+
+  /**
+   * Compute the smallest power-of-two capacity whose threshold admits
+   * expectedSize pairs at the given load factor.
+   */
+  static int tableSizeFor(int expectedSize, double loadFactor) {
+    int capacity = MINIMUM_CAPACITY;
+    while ((capacity < MAXIMUM_CAPACITY)
+        && (Math.min(capacity - 1L, (long) (capacity * loadFactor)) < expectedSize)) {
+      capacity *= 2;
+    } // while
+    return capacity;
+  } // tableSizeFor(int, double)
+
+  /**
+   * Scramble a hash code so that keys whose hash codes differ only in
+   * their high bits (or that are simply sequential) still land in
+   * well-separated slots of a power-of-two table.
+   */
+  static int spread(int hash) {
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  } // spread(int)
+
+  /**
+   * Scramble a long key down to an int in the same way.
+   */
+  static int spread(long key) {
+    return spread((int) (key ^ (key >>> 32)));
+  } // spread(long)
+
+  // +---------------+-----------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * A read-only collection of one part (given by part) of each pair.
+   */
+  class View<T> extends AbstractCollection<T> {
+    /**
+     * Extract the part of a pair this view holds.
+     */
+    final Function<KVPair<K, V>, T> part;
+
+    /**
+     * The characteristics of the parts, beyond those of the table.
+     */
+    final int characteristics;
+
+    View(Function<KVPair<K, V>, T> part, int characteristics) {
+      this.part = part;
+      this.characteristics = characteristics;
+    } // View(Function, int)
+
+    public int size() {
+      return AssociativeArray.this.size;
+    } // size()
+
+    public Iterator<T> iterator() {
+      return Spliterators.iterator(this.spliterator());
+    } // iterator()
+
+    public Spliterator<T> spliterator() {
+      return new Slots<K, V, T>(AssociativeArray.this.pairs, 0,
+          AssociativeArray.this.pairs.length, AssociativeArray.this.size, this.part,
+          this.characteristics | Spliterator.SIZED);
+    } // spliterator()
+  } // class View
+
+  /**
+   * A spliterator over the live pairs in slots [lo..hi) of a table.
+   * Splitting halves the range of slots. Only the spliterator for a
+   * whole table knows its exact size (so it is SIZED, but never
+   * SUBSIZED); the pieces estimate theirs from the fraction of the
+   * table they cover.
+   */
+  static class Slots<K, V, T> implements Spliterator<T> {
+    final KVPair<K, V>[] pairs;
+    final Function<KVPair<K, V>, T> part;
+    int lo;
+    final int hi;
+    long estimate;
+    int characteristics;
+
+    Slots(KVPair<K, V>[] pairs, int lo, int hi, long estimate,
+        Function<KVPair<K, V>, T> part, int characteristics) {
+      this.pairs = pairs;
+      this.lo = lo;
+      this.hi = hi;
+      this.estimate = estimate;
+      this.part = part;
+      this.characteristics = characteristics;
+    } // Slots(...)
+
+    public boolean tryAdvance(Consumer<? super T> action) {
+      while (this.lo < this.hi) {
+        KVPair<K, V> pair = this.pairs[this.lo++];
+        if ((pair != null) && (pair.key != null)) {
+          action.accept(this.part.apply(pair));
+          return true;
+        } // if
+      } // while
+      return false;
+    } // tryAdvance(Consumer)
+
+    public void forEachRemaining(Consumer<? super T> action) {
+      for (int i = this.lo; i < this.hi; i++) {
+        KVPair<K, V> pair = this.pairs[i];
+        if ((pair != null) && (pair.key != null)) {
+          action.accept(this.part.apply(pair));
+        } // if
+      } // for
+      this.lo = this.hi;
+    } // forEachRemaining(Consumer)
+
+    public Spliterator<T> trySplit() {
+      int mid = (this.lo + this.hi) >>> 1;
+      if (mid <= this.lo) {
+        return null;
+      } // if
+      // Neither half knows exactly how many pairs it holds.
+      this.characteristics &= ~Spliterator.SIZED;
+      this.estimate >>>= 1;
+      Slots<K, V, T> prefix = new Slots<K, V, T>(this.pairs, this.lo, mid, this.estimate,
+          this.part, this.characteristics);
+      this.lo = mid;
+      return prefix;
+    } // trySplit()
+
+    public long estimateSize() {
+      return this.estimate;
+    } // estimateSize()
+
+    public int characteristics() {
+      return this.characteristics;
+    } // characteristics()
+  } // class Slots
+
 } // class AssociativeArray
@@ -0,0 +1,270 @@
+package structures;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds large AssociativeArrays in parallel.
+ *
+ * The table is sized for all of the input up front, so its size (and
+ * hence every key's home slot) is known before we start. We split the
+ * table into equal runs of slots called regions and sort the input by
+ * the region each key's home slot falls in. The regions are then filled
+ * concurrently on a ForkJoinPool, each by a single task that only ever
+ * writes its own slots, so no locks are needed. A key whose probe
+ * sequence runs off the end of its region is set aside and inserted
+ * afterwards, in order, by the calling thread; with a reasonable load
+ * factor there are only a handful of these per region.
+ *
+ * Sorting is stable, so when a key appears more than once, the pair
+ * that comes last in the input wins, just as with setAll.
+ *
+ * @author Lucas Willett
+ */
+public class AssociativeArrayBuilder {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * Inputs smaller than this are not worth splitting up.
+   */
+  static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+  /**
+   * The smallest number of slots in a region.
+   */
+  static final int MINIMUM_REGION = 1 << 10;
+
+  /**
+   * The number of keys one task hashes before splitting.
+   */
+  static final int HASH_CHUNK = 1 << 12;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * There are no builders, just the static methods.
+   */
+  private AssociativeArrayBuilder() {
+  } // AssociativeArrayBuilder()
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Build an associative array that maps each keys[i] to values[i],
+   * using the common ForkJoinPool.
+   *
+   * @throws NullKeyException
+   *   when one of the keys is null.
+   * @throws IllegalArgumentException
+   *   when the arrays differ in length.
+   */
+  public static <K, V> AssociativeArray<K, V> parallelBuild(K[] keys, V[] values)
+      throws NullKeyException {
+    return parallelBuild(keys, values, ForkJoinPool.commonPool());
+  } // parallelBuild(K[], V[])
+
+  /**
+   * Build an associative array that maps each keys[i] to values[i],
+   * running the work on pool.
+   *
+   * @throws NullKeyException
+   *   when one of the keys is null.
+   * @throws IllegalArgumentException
+   *   when the arrays differ in length.
+   */
+  public static <K, V> AssociativeArray<K, V> parallelBuild(K[] keys, V[] values,
+      ForkJoinPool pool) throws NullKeyException {
+    if (keys.length != values.length) {
+      throw new IllegalArgumentException("have " + keys.length + " keys but "
+          + values.length + " values");
+    } // if
+    for (K key : keys) {
+      if (key == null) {
+        throw new NullKeyException("null keys are not permitted");
+      } // if
+    } // for
+    int n = keys.length;
+    AssociativeArray<K, V> result = new AssociativeArray<K, V>(n);
+    if ((n < SEQUENTIAL_THRESHOLD) || (pool.getParallelism() == 1)) {
+      result.setAll(keys, values);
+      return result;
+    } // if
+
+    // Find every key's home slot.
+    int[] homes = new int[n];
+    pool.invoke(new Hash<K>(keys, homes, result.capacity - 1, 0, n));
+
+    // Choose the regions: a few per thread, but not tiny ones.
+    int regionCount = 1;
+    while ((regionCount < pool.getParallelism() * 8)
+        && (result.capacity / (regionCount * 2) >= MINIMUM_REGION)) {
+      regionCount *= 2;
+    } // while
+    int regionShift = Integer.numberOfTrailingZeros(result.capacity / regionCount);
+
+    // Sort the input by region, keeping the input order within each.
+    int[] starts = new int[regionCount + 1];
+    for (int i = 0; i < n; i++) {
+      starts[(homes[i] >>> regionShift) + 1]++;
+    } // for
+    for (int r = 0; r < regionCount; r++) {
+      starts[r + 1] += starts[r];
+    } // for
+    int[] order = new int[n];
+    int[] next = starts.clone();
+    for (int i = 0; i < n; i++) {
+      order[next[homes[i] >>> regionShift]++] = i;
+    } // for
+
+    // Fill the regions, then finish off the keys that did not fit.
+    int[][] spills = new int[regionCount][];
+    Fill<K, V> fill = new Fill<K, V>(result, keys, values, homes, order, starts,
+        regionShift, 0, regionCount, spills);
+    pool.invoke(fill);
+    result.size = fill.count;
+    result.used = fill.count;
+    for (int r = 0; r < regionCount; r++) {
+      int[] spill = spills[r];
+      for (int j = 0; (spill != null) && (j < spill.length) && (spill[j] >= 0); j++) {
+        result.put(keys[spill[j]], values[spill[j]]);
+      } // for
+    } // for
+    return result;
+  } // parallelBuild(K[], V[], ForkJoinPool)
+
+  // +---------------+-----------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * Compute the home slots of keys[lo..hi).
+   */
+  static class Hash<K> extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final K[] keys;
+    final int[] homes;
+    final int mask;
+    final int lo;
+    final int hi;
+
+    Hash(K[] keys, int[] homes, int mask, int lo, int hi) {
+      this.keys = keys;
+      this.homes = homes;
+      this.mask = mask;
+      this.lo = lo;
+      this.hi = hi;
+    } // Hash(K[], int[], int, int, int)
+
+    protected void compute() {
+      if (this.hi - this.lo > HASH_CHUNK) {
+        int mid = (this.lo + this.hi) >>> 1;
+        invokeAll(new Hash<K>(this.keys, this.homes, this.mask, this.lo, mid),
+            new Hash<K>(this.keys, this.homes, this.mask, mid, this.hi));
+        return;
+      } // if
+      for (int i = this.lo; i < this.hi; i++) {
+        this.homes[i] = AssociativeArray.spread(this.keys[i].hashCode()) & this.mask;
+      } // for
+    } // compute()
+  } // class Hash
+
+  /**
+   * Fill regions [lo..hi) of the table, counting the new pairs and
+   * noting (in spills, which all of the tasks share) the input
+   * positions whose probes left their region.
+   */
+  static class Fill<K, V> extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final AssociativeArray<K, V> table;
+    final K[] keys;
+    final V[] values;
+    final int[] homes;
+    final int[] order;
+    final int[] starts;
+    final int regionShift;
+    final int lo;
+    final int hi;
+    final int[][] spills;
+
+    /**
+     * The number of pairs this task added to the table.
+     */
+    int count;
+
+    Fill(AssociativeArray<K, V> table, K[] keys, V[] values, int[] homes, int[] order,
+        int[] starts, int regionShift, int lo, int hi, int[][] spills) {
+      this.table = table;
+      this.keys = keys;
+      this.values = values;
+      this.homes = homes;
+      this.order = order;
+      this.starts = starts;
+      this.regionShift = regionShift;
+      this.lo = lo;
+      this.hi = hi;
+      this.spills = spills;
+    } // Fill(...)
+
+    protected void compute() {
+      if (this.hi - this.lo > 1) {
+        int mid = (this.lo + this.hi) >>> 1;
+        Fill<K, V> left = new Fill<K, V>(this.table, this.keys, this.values, this.homes,
+            this.order, this.starts, this.regionShift, this.lo, mid, this.spills);
+        Fill<K, V> right = new Fill<K, V>(this.table, this.keys, this.values, this.homes,
+            this.order, this.starts, this.regionShift, mid, this.hi, this.spills);
+        invokeAll(left, right);
+        this.count = left.count + right.count;
+        return;
+      } // if
+      this.fillRegion(this.lo);
+    } // compute()
+
+    /**
+     * Insert the keys of region r, never writing outside it.
+     */
+    void fillRegion(int r) {
+      KVPair<K, V>[] pairs = this.table.pairs;
+      int end = (r + 1) << this.regionShift;
+      int[] spill = null;
+      int spilled = 0;
+      for (int j = this.starts[r]; j < this.starts[r + 1]; j++) {
+        int n = this.order[j];
+        K key = this.keys[n];
+        int i = this.homes[n];
+        KVPair<K, V> pair;
+        while ((i < end) && ((pair = pairs[i]) != null)) {
+          if (pair.key.equals(key)) {
+            pair.value = this.values[n];
+            break;
+          } // if
+          i++;
+        } // while
+        if (i == end) {
+          if (spill == null) {
+            spill = new int[8];
+          } else if (spilled == spill.length) {
+            spill = Arrays.copyOf(spill, spilled * 2);
+          } // if/else
+          spill[spilled++] = n;
+        } else if (pairs[i] == null) {
+          pairs[i] = new KVPair<K, V>(key, this.values[n]);
+          this.count++;
+        } // if/else
+      } // for
+      if (spill != null) {
+        Arrays.fill(spill, spilled, spill.length, -1);
+        this.spills[r] = spill;
+      } // if
+    } // fillRegion(int)
+  } // class Fill
+
+} // class AssociativeArrayBuilder
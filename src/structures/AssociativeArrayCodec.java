@@ -0,0 +1,275 @@
+package structures;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes AssociativeArrays to channels, and reads them back, in a
+ * compact binary format. Keys and values are turned into bytes by a
+ * pair of Serializers (see Serializers for the common ones).
+ *
+ * The format, all big-endian, is
+ *
+ *   int magic, int version, int count, long length,
+ *   count times: int keyLength, int valueLength, key, value
+ *
+ * where length is the number of bytes after the header and a
+ * valueLength of -1 stands for a null value (with no bytes). Knowing
+ * the length lets us read in large blocks without ever reading past
+ * the end of the array, so several arrays (or other data) can follow
+ * one another on the same channel.
+ *
+ * Both directions go through a single buffer that the codec keeps
+ * between calls, and reading sizes the new table for count pairs
+ * before inserting any. A codec is therefore not thread-safe; give
+ * each thread its own.
+ *
+ * @author Lucas Willett
+ */
+public class AssociativeArrayCodec<K, V> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of every snapshot ("AAv\0").
+   */
+  static final int MAGIC = 0x41417600;
+
+  /**
+   * The version of the format we write.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The bytes in the header.
+   */
+  static final int HEADER_BYTES = 3 * Integer.BYTES + Long.BYTES;
+
+  /**
+   * The bytes before the key in each pair.
+   */
+  static final int PAIR_HEADER_BYTES = 2 * Integer.BYTES;
+
+  /**
+   * The valueLength that stands for null.
+   */
+  static final int NULL_VALUE = -1;
+
+  /**
+   * The default size of the buffer.
+   */
+  static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * How we turn keys into bytes and back.
+   */
+  Serializer<K> keys;
+
+  /**
+   * How we turn values into bytes and back.
+   */
+  Serializer<V> values;
+
+  /**
+   * The buffer we read and write through. Grows to fit the largest
+   * pair we have seen.
+   */
+  ByteBuffer buffer;
+
+  /**
+   * While reading, the number of bytes of the current array that are
+   * still in the channel.
+   */
+  long unread;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a codec that uses the given serializers.
+   */
+  public AssociativeArrayCodec(Serializer<K> keys, Serializer<V> values) {
+    this(keys, values, DEFAULT_BUFFER_SIZE);
+  } // AssociativeArrayCodec(Serializer, Serializer)
+
+  /**
+   * Create a codec that uses the given serializers and a buffer of
+   * (initially) bufferSize bytes.
+   *
+   * @throws IllegalArgumentException
+   *   when bufferSize is too small to hold the header.
+   */
+  public AssociativeArrayCodec(Serializer<K> keys, Serializer<V> values, int bufferSize) {
+    if (bufferSize < HEADER_BYTES) {
+      throw new IllegalArgumentException("illegal buffer size: " + bufferSize);
+    } // if
+    this.keys = keys;
+    this.values = values;
+    this.buffer = ByteBuffer.allocate(bufferSize);
+  } // AssociativeArrayCodec(Serializer, Serializer, int)
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Write every pair of arr to out. Measures each key and value twice:
+   * once to find the length, and once as it is written.
+   */
+  public void write(AssociativeArray<K, V> arr, WritableByteChannel out) throws IOException {
+    long length = 0;
+    for (KVPair<K, V> pair : arr.pairs) {
+      if ((pair != null) && (pair.key != null)) {
+        length += PAIR_HEADER_BYTES + this.keys.sizeOf(pair.key)
+            + ((pair.value == null) ? 0 : this.values.sizeOf(pair.value));
+      } // if
+    } // for
+    ByteBuffer buf = this.buffer;
+    buf.clear();
+    buf.putInt(MAGIC).putInt(VERSION).putInt(arr.size).putLong(length);
+    for (KVPair<K, V> pair : arr.pairs) {
+      if ((pair == null) || (pair.key == null)) {
+        continue;
+      } // if
+      int keyLength = this.keys.sizeOf(pair.key);
+      int valueLength = (pair.value == null) ? NULL_VALUE : this.values.sizeOf(pair.value);
+      int needed = PAIR_HEADER_BYTES + keyLength + Math.max(valueLength, 0);
+      if (buf.remaining() < needed) {
+        drain(buf, out);
+        buf = this.reserve(needed);
+      } // if
+      buf.putInt(keyLength).putInt(valueLength);
+      this.keys.write(pair.key, buf);
+      if (pair.value != null) {
+        this.values.write(pair.value, buf);
+      } // if
+    } // for
+    drain(buf, out);
+  } // write(AssociativeArray, WritableByteChannel)
+
+  /**
+   * Read an associative array written by write from in. Reads no
+   * further than the end of the array.
+   *
+   * @throws StreamCorruptedException
+   *   when in does not hold an associative array we understand.
+   * @throws EOFException
+   *   when in ends part way through the array.
+   */
+  public AssociativeArray<K, V> read(ReadableByteChannel in) throws IOException {
+    ByteBuffer buf = this.buffer;
+    buf.clear().limit(0);
+    this.unread = HEADER_BYTES;
+    this.fill(in, HEADER_BYTES);
+    if (buf.getInt() != MAGIC) {
+      throw new StreamCorruptedException("not an associative array");
+    } // if
+    int version = buf.getInt();
+    if (version != VERSION) {
+      throw new StreamCorruptedException("unknown version: " + version);
+    } // if
+    int count = buf.getInt();
+    this.unread = buf.getLong();
+    if ((count < 0) || (this.unread < (long) count * PAIR_HEADER_BYTES)) {
+      throw new StreamCorruptedException("illegal count or length: " + count + ", "
+          + this.unread);
+    } // if
+    AssociativeArray<K, V> arr = new AssociativeArray<K, V>(count);
+    for (int n = 0; n < count; n++) {
+      this.fill(in, PAIR_HEADER_BYTES);
+      int keyLength = this.buffer.getInt();
+      int valueLength = this.buffer.getInt();
+      if ((keyLength < 0) || (valueLength < NULL_VALUE)) {
+        throw new StreamCorruptedException("illegal lengths: " + keyLength + ", "
+            + valueLength);
+      } // if
+      // Corrupt lengths can add up past the largest int, so check the
+      // sum before we trust it.
+      long pairLength = (long) keyLength + Math.max(valueLength, 0);
+      if ((pairLength > Integer.MAX_VALUE)
+          || (pairLength > this.buffer.remaining() + this.unread)) {
+        throw new StreamCorruptedException("pair runs past the end of the array: "
+            + keyLength + ", " + valueLength);
+      } // if
+      this.fill(in, (int) pairLength);
+      K key = this.keys.read(this.buffer, keyLength);
+      V value = (valueLength == NULL_VALUE) ? null : this.values.read(this.buffer, valueLength);
+      if (key == null) {
+        throw new StreamCorruptedException("null key");
+      } // if
+      arr.put(key, value);
+    } // for
+    if ((this.unread != 0) || this.buffer.hasRemaining()) {
+      throw new StreamCorruptedException("length does not match the pairs");
+    } // if
+    return arr;
+  } // read(ReadableByteChannel)
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Write all of buf (flipped) to out and clear it.
+   */
+  static void drain(ByteBuffer buf, WritableByteChannel out) throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) {
+      out.write(buf);
+    } // while
+    buf.clear();
+  } // drain(ByteBuffer, WritableByteChannel)
+
+  /**
+   * Make sure the (empty) buffer can hold needed bytes, replacing it
+   * with a bigger one if need be.
+   */
+  ByteBuffer reserve(int needed) {
+    if (this.buffer.capacity() < needed) {
+      this.buffer = ByteBuffer.allocate(Math.max(needed, this.buffer.capacity() * 2));
+    } // if
+    return this.buffer;
+  } // reserve(int)
+
+  /**
+   * Make sure at least needed bytes remain to be read in the buffer,
+   * reading more from in as need be. Reads as much as fits, but never
+   * more than the unread part of the current array.
+   */
+  void fill(ReadableByteChannel in, int needed) throws IOException {
+    ByteBuffer buf = this.buffer;
+    if (buf.remaining() >= needed) {
+      return;
+    } // if
+    if (buf.remaining() + this.unread < needed) {
+      throw new StreamCorruptedException("pair runs past the end of the array");
+    } // if
+    buf.compact();
+    if (buf.capacity() < needed) {
+      ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, buf.capacity() * 2));
+      buf.flip();
+      bigger.put(buf);
+      this.buffer = buf = bigger;
+    } // if
+    while (buf.position() < needed) {
+      buf.limit((int) Math.min(buf.capacity(), buf.position() + this.unread));
+      int count = in.read(buf);
+      if (count < 0) {
+        throw new EOFException("associative array ends early");
+      } // if
+      this.unread -= count;
+    } // while
+    buf.flip();
+  } // fill(ReadableByteChannel, int)
+
+} // class AssociativeArrayCodec
@@ -0,0 +1,167 @@
+package structures;
+
+import java.util.Arrays;
+
+/**
+ * What an AssociativeArray has counted since it started recording
+ * metrics (see AssociativeArray.recordMetrics), together with the
+ * shape of its table when the snapshot was taken. Snapshots never
+ * change.
+ *
+ * @author Lucas Willett
+ */
+public final class AssociativeArrayMetrics {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of searches for a key (by get, hasKey, remove and the
+   * like).
+   */
+  public final long lookups;
+
+  /**
+   * The number of searches that found their key.
+   */
+  public final long hits;
+
+  /**
+   * The number of searches that did not find their key.
+   */
+  public final long misses;
+
+  /**
+   * The number of keys set, whether new or replaced.
+   */
+  public final long sets;
+
+  /**
+   * The number of keys removed.
+   */
+  public final long removes;
+
+  /**
+   * A histogram of probe lengths: probeLengths[i] is the number of
+   * probes that looked at between 2^i and 2^(i+1) - 1 slots. The last
+   * bucket also takes any longer probes.
+   */
+  final long[] probeLengths;
+
+  /**
+   * The number of times the table was rebuilt, whether to grow, to
+   * shrink or to drop removed slots.
+   */
+  public final long resizes;
+
+  /**
+   * The total time spent rebuilding the table, in nanoseconds.
+   */
+  public final long resizeNanos;
+
+  /**
+   * The longest time spent on one rebuild, in nanoseconds.
+   */
+  public final long maxResizeNanos;
+
+  /**
+   * The number of pairs.
+   */
+  public final int size;
+
+  /**
+   * The number of slots in the table.
+   */
+  public final int capacity;
+
+  /**
+   * The number of slots that hold removed pairs.
+   */
+  public final int removed;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a snapshot.
+   */
+  AssociativeArrayMetrics(long lookups, long hits, long misses, long sets, long removes,
+      long[] probeLengths, long resizes, long resizeNanos, long maxResizeNanos, int size,
+      int capacity, int removed) {
+    this.lookups = lookups;
+    this.hits = hits;
+    this.misses = misses;
+    this.sets = sets;
+    this.removes = removes;
+    this.probeLengths = probeLengths;
+    this.resizes = resizes;
+    this.resizeNanos = resizeNanos;
+    this.maxResizeNanos = maxResizeNanos;
+    this.size = size;
+    this.capacity = capacity;
+    this.removed = removed;
+  } // AssociativeArrayMetrics(...)
+
+  // +------------------+--------------------------------------------
+  // | Standard Methods |
+  // +------------------+
+
+  /**
+   * Convert the snapshot to a string.
+   */
+  public String toString() {
+    return String.format("{ lookups: %d, hitRate: %.3f, sets: %d, removes: %d, "
+        + "meanProbeLength: %.2f, probeLengths: %s, resizes: %d, resizeMillis: %.3f, "
+        + "occupancy: %.3f, tombstoneRatio: %.3f }", this.lookups, this.hitRate(), this.sets,
+        this.removes, this.meanProbeLength(), Arrays.toString(this.probeLengths), this.resizes,
+        this.resizeNanos / 1e6, this.occupancy(), this.tombstoneRatio());
+  } // toString()
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Get the probe-length histogram (see probeLengths).
+   */
+  public long[] probeLengths() {
+    return this.probeLengths.clone();
+  } // probeLengths()
+
+  /**
+   * Determine the fraction of lookups that found their key (or 0 if
+   * there were none).
+   */
+  public double hitRate() {
+    return (this.lookups == 0) ? 0 : (double) this.hits / this.lookups;
+  } // hitRate()
+
+  /**
+   * Estimate the mean probe length, taking each probe to be as long
+   * as the middle of its histogram bucket.
+   */
+  public double meanProbeLength() {
+    double total = 0;
+    long count = 0;
+    for (int i = 0; i < this.probeLengths.length; i++) {
+      total += this.probeLengths[i] * ((1L << i) + (1L << (i + 1)) - 1) / 2.0;
+      count += this.probeLengths[i];
+    } // for
+    return (count == 0) ? 0 : total / count;
+  } // meanProbeLength()
+
+  /**
+   * Determine the fraction of slots that hold pairs.
+   */
+  public double occupancy() {
+    return (double) this.size / this.capacity;
+  } // occupancy()
+
+  /**
+   * Determine the fraction of slots that hold removed pairs.
+   */
+  public double tombstoneRatio() {
+    return (double) this.removed / this.capacity;
+  } // tombstoneRatio()
+} // class AssociativeArrayMetrics
@@ -0,0 +1,691 @@
+package structures;
+
+import java.util.ArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * An associative array that never holds more than a fixed number of
+ * pairs, for use as a cache. When a new key would take it past its
+ * maximum size, it evicts a pair chosen by its EvictionPolicy and
+ * tells any eviction listeners.
+ *
+ * The keys are found through an AssociativeArray that maps each one
+ * to a node. The nodes also sit on doubly-linked lists that keep
+ * whatever order the policy needs, so every get, set and eviction
+ * takes constant time.
+ *
+ * Like AssociativeArray, this class is not thread-safe.
+ *
+ * @author Lucas Willett
+ */
+public class BoundedAssociativeArray<K, V> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * How we choose which pair to evict.
+   */
+  public enum EvictionPolicy {
+    /**
+     * Evict the least recently used pair.
+     */
+    LRU,
+
+    /**
+     * Evict the least frequently used pair, breaking ties by evicting
+     * the least recently used.
+     */
+    LFU,
+
+    /**
+     * Keep new pairs in a small LRU window; when a pair leaves the
+     * window, only let it into the main (segmented LRU) area if an
+     * approximate count of recent uses of its key beats that of the
+     * pair it would displace. This resists both scans and bursts.
+     */
+    TINY_LFU
+  } // enum EvictionPolicy
+
+  /**
+   * The queue of a node in the window (TINY_LFU), or of every node
+   * (LRU and LFU).
+   */
+  static final byte WINDOW = 0;
+
+  /**
+   * The queue of a node in the probation part of the main area.
+   */
+  static final byte PROBATION = 1;
+
+  /**
+   * The queue of a node in the protected part of the main area.
+   */
+  static final byte PROTECTED = 2;
+
+  /**
+   * The percentage of the maximum size given to the window.
+   */
+  static final int WINDOW_PERCENT = 1;
+
+  /**
+   * The percentage of the main area given to protected nodes.
+   */
+  static final int PROTECTED_PERCENT = 80;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The largest number of pairs we hold.
+   */
+  int maximumSize;
+
+  /**
+   * How we choose what to evict.
+   */
+  EvictionPolicy policy;
+
+  /**
+   * Finds the node for each key.
+   */
+  AssociativeArray<K, Node<K, V>> index;
+
+  /**
+   * The window (TINY_LFU) or the only list (LRU), most recently used
+   * first.
+   */
+  Node<K, V> window;
+
+  /**
+   * The probation queue (TINY_LFU), most recently used first.
+   */
+  Node<K, V> probation;
+
+  /**
+   * The protected queue (TINY_LFU), most recently used first.
+   */
+  Node<K, V> protectedQueue;
+
+  /**
+   * The list of frequencies (LFU), lowest first.
+   */
+  Bucket<K, V> buckets;
+
+  /**
+   * The number of nodes in the window.
+   */
+  int windowSize;
+
+  /**
+   * The largest number of nodes in the window.
+   */
+  int windowMaximum;
+
+  /**
+   * The number of nodes in the protected queue.
+   */
+  int protectedSize;
+
+  /**
+   * The largest number of nodes in the protected queue.
+   */
+  int protectedMaximum;
+
+  /**
+   * Counts recent uses of keys (TINY_LFU).
+   */
+  FrequencySketch sketch;
+
+  /**
+   * Who to tell about evictions.
+   */
+  ArrayList<BiConsumer<? super K, ? super V>> listeners;
+
+  /**
+   * The number of lookups that found their key.
+   */
+  long hits;
+
+  /**
+   * The number of lookups that did not find their key.
+   */
+  long misses;
+
+  /**
+   * The number of pairs evicted.
+   */
+  long evictions;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty array that holds at most maximumSize pairs,
+   * evicting the least recently used.
+   *
+   * @throws IllegalArgumentException
+   *   when maximumSize is not positive.
+   */
+  public BoundedAssociativeArray(int maximumSize) {
+    this(maximumSize, EvictionPolicy.LRU);
+  } // BoundedAssociativeArray(int)
+
+  /**
+   * Create a new, empty array that holds at most maximumSize pairs,
+   * evicting according to policy.
+   *
+   * @throws IllegalArgumentException
+   *   when maximumSize is not positive.
+   */
+  public BoundedAssociativeArray(int maximumSize, EvictionPolicy policy) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("illegal maximum size: " + maximumSize);
+    } // if
+    this.maximumSize = maximumSize;
+    this.policy = policy;
+    this.index = new AssociativeArray<K, Node<K, V>>(maximumSize);
+    this.window = Node.sentinel();
+    this.probation = Node.sentinel();
+    this.protectedQueue = Node.sentinel();
+    this.buckets = new Bucket<K, V>(0);
+    this.listeners = new ArrayList<BiConsumer<? super K, ? super V>>();
+    if (policy == EvictionPolicy.TINY_LFU) {
+      this.windowMaximum = Math.max(1, (int) ((long) maximumSize * WINDOW_PERCENT / 100));
+      this.protectedMaximum =
+          (int) ((long) (maximumSize - this.windowMaximum) * PROTECTED_PERCENT / 100);
+      this.sketch = new FrequencySketch(maximumSize);
+    } // if
+  } // BoundedAssociativeArray(int, EvictionPolicy)
+
+  // +------------------+--------------------------------------------
+  // | Standard Methods |
+  // +------------------+
+
+  /**
+   * Convert the array to a string.
+   */
+  public String toString() {
+    StringBuilder str = new StringBuilder();
+    this.index.forEach((key, node) -> str.append((str.length() == 0) ? "{ " : ", ")
+        .append(key).append(": ").append(node.value));
+    return (str.length() == 0) ? "{}" : str.append(" }").toString();
+  } // toString()
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Set the value associated with key to value, evicting a pair if
+   * the array is full. (Under TINY_LFU, the evicted pair may be this
+   * one, later on, if its key is rarely used.)
+   *
+   * @throws NullKeyException
+   *   when the key is null.
+   */
+  public void set(K key, V value) throws NullKeyException {
+    Node<K, V> node = this.index.getOrNull(key);
+    if (node != null) {
+      node.value = value;
+      this.touch(node);
+      return;
+    } // if
+    if (key == null) {
+      throw new NullKeyException("null keys are not permitted");
+    } // if
+    if (this.sketch != null) {
+      this.sketch.increment(key);
+    } // if
+    this.insert(key, value);
+  } // set(K,V)
+
+  /**
+   * Get the value associated with key, counting a hit or a miss.
+   *
+   * @throws KeyNotFoundException
+   *   when the key is null or does not appear in the associative array.
+   */
+  public V get(K key) throws KeyNotFoundException {
+    Node<K, V> node = this.lookup(key);
+    if (node == null) {
+      throw new KeyNotFoundException();
+    } // if
+    return node.value;
+  } // get(K)
+
+  /**
+   * Get the value associated with key, or null if the key is null or
+   * does not appear, counting a hit or a miss.
+   */
+  public V getOrNull(K key) {
+    Node<K, V> node = this.lookup(key);
+    return (node == null) ? null : node.value;
+  } // getOrNull(K)
+
+  /**
+   * Get the value associated with key. If there is none, compute one
+   * with compute, set it, and return it.
+   *
+   * @throws NullKeyException
+   *   when the key is null.
+   */
+  public V getOrCompute(K key, Function<? super K, ? extends V> compute)
+      throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException("null keys are not permitted");
+    } // if
+    Node<K, V> node = this.lookup(key);
+    if (node != null) {
+      return node.value;
+    } // if
+    // lookup has already counted this use in the sketch, so go
+    // straight to insert rather than through set.
+    V value = compute.apply(key);
+    this.insert(key, value);
+    return value;
+  } // getOrCompute(K, Function)
+
+  /**
+   * Determine if key appears in the associative array, without
+   * counting a use of it.
+   */
+  public boolean hasKey(K key) {
+    return this.index.hasKey(key);
+  } // hasKey(K)
+
+  /**
+   * Remove the key/value pair associated with a key, without telling
+   * the eviction listeners. If the key does not appear, does nothing.
+   */
+  public void remove(K key) {
+    Node<K, V> node = this.index.getOrNull(key);
+    if (node != null) {
+      this.index.remove(key);
+      this.detach(node);
+    } // if
+  } // remove(K)
+
+  /**
+   * Determine how many key/value pairs are in the associative array.
+   */
+  public int size() {
+    return this.index.size();
+  } // size()
+
+  /**
+   * Determine the largest number of pairs the array holds.
+   */
+  public int maximumSize() {
+    return this.maximumSize;
+  } // maximumSize()
+
+  /**
+   * Call listener with the key and value of each evicted pair, just
+   * after it is evicted.
+   */
+  public void addEvictionListener(BiConsumer<? super K, ? super V> listener) {
+    this.listeners.add(listener);
+  } // addEvictionListener(BiConsumer)
+
+  /**
+   * Determine how many lookups have found their key.
+   */
+  public long hitCount() {
+    return this.hits;
+  } // hitCount()
+
+  /**
+   * Determine how many lookups have not found their key.
+   */
+  public long missCount() {
+    return this.misses;
+  } // missCount()
+
+  /**
+   * Determine the fraction of lookups that found their key (or 1 if
+   * there have been none).
+   */
+  public double hitRate() {
+    long total = this.hits + this.misses;
+    return (total == 0) ? 1.0 : (double) this.hits / total;
+  } // hitRate()
+
+  /**
+   * Determine how many pairs have been evicted.
+   */
+  public long evictionCount() {
+    return this.evictions;
+  } // evictionCount()
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Find the node for key, counting a hit or miss and a use of it.
+   */
+  Node<K, V> lookup(K key) {
+    Node<K, V> node = this.index.getOrNull(key);
+    if (node == null) {
+      this.misses++;
+      if ((this.sketch != null) && (key != null)) {
+        this.sketch.increment(key);
+      } // if
+      return null;
+    } // if
+    this.hits++;
+    this.touch(node);
+    return node;
+  } // lookup(K)
+
+  /**
+   * Add a pair for a non-null key that does not appear, evicting a
+   * pair first if the array is full (or, under TINY_LFU, deciding
+   * afterwards which pair to keep).
+   */
+  void insert(K key, V value) throws NullKeyException {
+    if ((this.policy != EvictionPolicy.TINY_LFU) && (this.index.size() >= this.maximumSize)) {
+      this.evict(this.policy == EvictionPolicy.LRU
+          ? this.window.prev
+          : this.buckets.next.nodes.prev);
+    } // if
+    Node<K, V> node = new Node<K, V>(key, value);
+    this.index.set(key, node);
+    this.admit(node);
+  } // insert(K, V)
+
+  /**
+   * Note a use of node.
+   */
+  void touch(Node<K, V> node) {
+    switch (this.policy) {
+      case LRU:
+        node.unlink();
+        node.linkAfter(this.window);
+        break;
+      case LFU:
+        this.promote(node);
+        break;
+      default:
+        this.sketch.increment(node.key);
+        node.unlink();
+        if (node.queue == PROBATION) {
+          // A second use earns a place in the protected queue.
+          node.queue = PROTECTED;
+          node.linkAfter(this.protectedQueue);
+          if (++this.protectedSize > this.protectedMaximum) {
+            Node<K, V> demoted = this.protectedQueue.prev;
+            demoted.unlink();
+            demoted.queue = PROBATION;
+            demoted.linkAfter(this.probation);
+            this.protectedSize--;
+          } // if
+        } else {
+          node.linkAfter((node.queue == WINDOW) ? this.window : this.protectedQueue);
+        } // if/else
+    } // switch
+  } // touch(Node)
+
+  /**
+   * Put a new node (already in the index) in its place.
+   */
+  void admit(Node<K, V> node) {
+    switch (this.policy) {
+      case LRU:
+        node.linkAfter(this.window);
+        break;
+      case LFU:
+        Bucket<K, V> first = this.buckets.next;
+        if (first.frequency != 1) {
+          first = new Bucket<K, V>(1);
+          first.linkAfter(this.buckets);
+        } // if
+        node.bucket = first;
+        node.linkAfter(first.nodes);
+        break;
+      default:
+        node.linkAfter(this.window);
+        if (++this.windowSize <= this.windowMaximum) {
+          return;
+        } // if
+        // Move the oldest node in the window to probation, and if
+        // that overfills us, keep whichever of it and the oldest
+        // probation node has been used more.
+        Node<K, V> candidate = this.window.prev;
+        candidate.unlink();
+        this.windowSize--;
+        candidate.queue = PROBATION;
+        candidate.linkAfter(this.probation);
+        if (this.index.size() > this.maximumSize) {
+          Node<K, V> victim = this.probation.prev;
+          if (victim == candidate) {
+            victim = (this.protectedQueue.prev != this.protectedQueue)
+                ? this.protectedQueue.prev
+                : candidate;
+          } // if
+          if ((victim != candidate)
+              && (this.sketch.frequency(candidate.key) <= this.sketch.frequency(victim.key))) {
+            victim = candidate;
+          } // if
+          this.evict(victim);
+        } // if
+    } // switch
+  } // admit(Node)
+
+  /**
+   * Move node up to the next frequency (LFU).
+   */
+  void promote(Node<K, V> node) {
+    Bucket<K, V> bucket = node.bucket;
+    Bucket<K, V> next = bucket.next;
+    if (next.frequency != bucket.frequency + 1) {
+      next = new Bucket<K, V>(bucket.frequency + 1);
+      next.linkAfter(bucket);
+    } // if
+    node.unlink();
+    if (bucket.isEmpty()) {
+      bucket.unlink();
+    } // if
+    node.bucket = next;
+    node.linkAfter(next.nodes);
+  } // promote(Node)
+
+  /**
+   * Take node off its list, keeping the counts right.
+   */
+  void detach(Node<K, V> node) {
+    node.unlink();
+    if (this.policy == EvictionPolicy.LFU) {
+      if (node.bucket.isEmpty()) {
+        node.bucket.unlink();
+      } // if
+    } else if (this.policy == EvictionPolicy.TINY_LFU) {
+      if (node.queue == WINDOW) {
+        this.windowSize--;
+      } else if (node.queue == PROTECTED) {
+        this.protectedSize--;
+      } // if/else
+    } // if/else
+  } // detach(Node)
+
+  /**
+   * Evict node and tell the listeners.
+   */
+  void evict(Node<K, V> node) {
+    this.index.remove(node.key);
+    this.detach(node);
+    this.evictions++;
+    for (BiConsumer<? super K, ? super V> listener : this.listeners) {
+      listener.accept(node.key, node.value);
+    } // for
+  } // evict(Node)
+
+  // +---------------+-----------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * A key and value, on a circular doubly-linked list whose head is a
+   * sentinel node.
+   */
+  static class Node<K, V> {
+    K key;
+    V value;
+    Node<K, V> prev;
+    Node<K, V> next;
+
+    /**
+     * The queue the node is in (TINY_LFU).
+     */
+    byte queue;
+
+    /**
+     * The frequency the node is listed under (LFU).
+     */
+    Bucket<K, V> bucket;
+
+    Node(K key, V value) {
+      this.key = key;
+      this.value = value;
+    } // Node(K, V)
+
+    /**
+     * Create the sentinel of an empty list.
+     */
+    static <K, V> Node<K, V> sentinel() {
+      Node<K, V> sentinel = new Node<K, V>(null, null);
+      sentinel.prev = sentinel;
+      sentinel.next = sentinel;
+      return sentinel;
+    } // sentinel()
+
+    /**
+     * Put this node just after other.
+     */
+    void linkAfter(Node<K, V> other) {
+      this.prev = other;
+      this.next = other.next;
+      other.next.prev = this;
+      other.next = this;
+    } // linkAfter(Node)
+
+    /**
+     * Take this node off its list.
+     */
+    void unlink() {
+      this.prev.next = this.next;
+      this.next.prev = this.prev;
+      this.prev = null;
+      this.next = null;
+    } // unlink()
+  } // class Node
+
+  /**
+   * The nodes used a given number of times (LFU), most recently used
+   * first. Buckets form a circular list, by increasing frequency, whose
+   * head is a sentinel bucket of frequency 0.
+   */
+  static class Bucket<K, V> {
+    final int frequency;
+    final Node<K, V> nodes;
+    Bucket<K, V> prev;
+    Bucket<K, V> next;
+
+    Bucket(int frequency) {
+      this.frequency = frequency;
+      this.nodes = Node.sentinel();
+      this.prev = this;
+      this.next = this;
+    } // Bucket(int)
+
+    boolean isEmpty() {
+      return this.nodes.next == this.nodes;
+    } // isEmpty()
+
+    void linkAfter(Bucket<K, V> other) {
+      this.prev = other;
+      this.next = other.next;
+      other.next.prev = this;
+      other.next = this;
+    } // linkAfter(Bucket)
+
+    void unlink() {
+      this.prev.next = this.next;
+      this.next.prev = this.prev;
+    } // unlink()
+  } // class Bucket
+
+  /**
+   * An approximate count of how often each key has been used lately:
+   * a count-min sketch of four-bit counters, sixteen to a long. Once
+   * it has counted ten uses per slot of the cache, it halves every
+   * counter, so old popularity fades.
+   */
+  static class FrequencySketch {
+    /**
+     * Seeds for the four hash functions.
+     */
+    static final int[] SEEDS = { 0x97CB3127, 0xB7D1E2F1, 0x3C6EF372, 0x5F356495 };
+
+    final long[] table;
+    final int mask;
+    final int sampleSize;
+    int additions;
+
+    FrequencySketch(int maximumSize) {
+      int slots = AssociativeArray.tableSizeFor(maximumSize, 0.5) / 16;
+      this.table = new long[Math.max(1, slots)];
+      this.mask = this.table.length - 1;
+      this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * maximumSize);
+    } // FrequencySketch(int)
+
+    /**
+     * Count a use of key.
+     */
+    void increment(Object key) {
+      int hash = AssociativeArray.spread(key.hashCode());
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        int h = AssociativeArray.spread(hash ^ SEEDS[i]);
+        int slot = h & this.mask;
+        int shift = ((h >>> 24) & 15) << 2;
+        if (((this.table[slot] >>> shift) & 15) < 15) {
+          this.table[slot] += 1L << shift;
+          added = true;
+        } // if
+      } // for
+      if (added && (++this.additions >= this.sampleSize)) {
+        this.halve();
+      } // if
+    } // increment(Object)
+
+    /**
+     * Estimate how often key has been used.
+     */
+    int frequency(Object key) {
+      int hash = AssociativeArray.spread(key.hashCode());
+      int min = 15;
+      for (int i = 0; i < 4; i++) {
+        int h = AssociativeArray.spread(hash ^ SEEDS[i]);
+        int shift = ((h >>> 24) & 15) << 2;
+        min = Math.min(min, (int) ((this.table[h & this.mask] >>> shift) & 15));
+      } // for
+      return min;
+    } // frequency(Object)
+
+    /**
+     * Halve every counter.
+     */
+    void halve() {
+      for (int i = 0; i < this.table.length; i++) {
+        this.table[i] = (this.table[i] >>> 1) & 0x7777777777777777L;
+      } // for
+      this.additions /= 2;
+    } // halve()
+  } // class FrequencySketch
+
+} // class BoundedAssociativeArray
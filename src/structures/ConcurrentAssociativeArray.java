@@ -0,0 +1,423 @@
+package structures;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe associative array. The keys are split by hash code
+ * among a fixed number of segments, each an open-addressing hash table
+ * with its own lock, so writers to different segments never wait for
+ * one another. Readers take no locks at all.
+ *
+ * Each slot of a segment holds an Entry whose key is fixed and whose
+ * value is volatile. Writers publish new entries with volatile stores
+ * into an AtomicReferenceArray, update values in place, and publish a
+ * whole new array when a segment grows, so a reader always sees a
+ * consistent table. Removing a key marks its Entry DEAD as well as its
+ * slot, so readers still holding an older table see the removal.
+ *
+ * @author Lucas Willett
+ */
+public class ConcurrentAssociativeArray<K, V> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The default number of segments.
+   */
+  static final int DEFAULT_SEGMENTS = 16;
+
+  /**
+   * The largest number of segments.
+   */
+  static final int MAXIMUM_SEGMENTS = 1 << 16;
+
+  /**
+   * The entry we leave in a slot whose key has been removed.
+   */
+  static final Entry<Object, Object> REMOVED = new Entry<Object, Object>(null, 0, null);
+
+  /**
+   * The value we give a removed entry.
+   */
+  static final Object DEAD = new Object();
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The segments.
+   */
+  Segment<K, V>[] segments;
+
+  /**
+   * How far to shift a spread hash to get its segment number.
+   */
+  int segmentShift;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty associative array with the default number of
+   * segments.
+   */
+  public ConcurrentAssociativeArray() {
+    this(DEFAULT_SEGMENTS);
+  } // ConcurrentAssociativeArray()
+
+  /**
+   * Create a new, empty associative array with enough segments that
+   * about concurrency threads can write at once without waiting.
+   *
+   * @throws IllegalArgumentException
+   *   when concurrency is not positive.
+   */
+  @SuppressWarnings({ "unchecked" })
+  public ConcurrentAssociativeArray(int concurrency) {
+    if (concurrency <= 0) {
+      throw new IllegalArgumentException("illegal concurrency: " + concurrency);
+    } // if
+    int count = 1;
+    int bits = 0;
+    while ((count < concurrency) && (count < MAXIMUM_SEGMENTS)) {
+      count *= 2;
+      bits++;
+    } // while
+    this.segments = (Segment<K, V>[]) new Segment<?, ?>[count];
+    for (int i = 0; i < count; i++) {
+      this.segments[i] = new Segment<K, V>();
+    } // for
+    // Use the high bits for the segment; the tables use the low ones.
+    this.segmentShift = 32 - bits;
+  } // ConcurrentAssociativeArray(int)
+
+  // +------------------+--------------------------------------------
+  // | Standard Methods |
+  // +------------------+
+
+  /**
+   * Convert the array to a string. Changes made while we build the
+   * string may or may not be reflected.
+   */
+  public String toString() {
+    StringBuilder str = new StringBuilder("{ ");
+    for (Segment<K, V> segment : this.segments) {
+      AtomicReferenceArray<Entry<K, V>> table = segment.table;
+      for (int i = 0; i < table.length(); i++) {
+        Entry<K, V> entry = table.get(i);
+        Object value;
+        if ((entry != null) && (entry.key != null) && ((value = entry.value) != DEAD)) {
+          str.append(entry.key).append(": ").append(value).append(", ");
+        } // if
+      } // for
+    } // for
+    if (str.length() == 2) {
+      return "{}";
+    } // if
+    str.setLength(str.length() - 2);
+    return str.append(" }").toString();
+  } // toString()
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Set the value associated with key to value. Future calls to
+   * get(key) will return value.
+   *
+   * @throws NullKeyException
+   *   when the key is null.
+   */
+  public void set(K key, V value) throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException("null keys are not permitted");
+    } // if
+    int hash = AssociativeArray.spread(key.hashCode());
+    this.segmentFor(hash).set(key, hash, value);
+  } // set(K,V)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws KeyNotFoundException
+   *   when the key is null or does not appear in the associative array.
+   */
+  @SuppressWarnings({ "unchecked" })
+  public V get(K key) throws KeyNotFoundException {
+    Object value = this.lookup(key);
+    if (value == DEAD) {
+      throw new KeyNotFoundException();
+    } // if
+    return (V) value;
+  } // get(K)
+
+  /**
+   * Determine if key appears in the associative array. Returns
+   * false for the null key.
+   */
+  public boolean hasKey(K key) {
+    return this.lookup(key) != DEAD;
+  } // hasKey(K)
+
+  /**
+   * Remove the key/value pair associated with a key. Future calls
+   * to get(key) will throw an exception. If the key does not appear
+   * in the associative array, does nothing.
+   */
+  public void remove(K key) {
+    if (key == null) {
+      return;
+    } // if
+    int hash = AssociativeArray.spread(key.hashCode());
+    this.segmentFor(hash).remove(key, hash);
+  } // remove(K)
+
+  /**
+   * Determine how many key/value pairs are in the associative array.
+   * Changes made while we count may or may not be reflected.
+   */
+  public int size() {
+    int size = 0;
+    for (Segment<K, V> segment : this.segments) {
+      size += segment.size;
+    } // for
+    return size;
+  } // size()
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Find the segment responsible for a spread hash.
+   */
+  Segment<K, V> segmentFor(int hash) {
+    // Shifting an int by 32 leaves it alone, so one segment needs care.
+    return (this.segments.length == 1)
+        ? this.segments[0]
+        : this.segments[hash >>> this.segmentShift];
+  } // segmentFor(int)
+
+  /**
+   * Find the value associated with key, or DEAD if there is none.
+   */
+  Object lookup(K key) {
+    if (key == null) {
+      return DEAD;
+    } // if
+    int hash = AssociativeArray.spread(key.hashCode());
+    Segment<K, V> segment = this.segmentFor(hash);
+    AtomicReferenceArray<Entry<K, V>> table = segment.table;
+    while (true) {
+      Entry<K, V> entry = Segment.probe(table, key, hash);
+      if (entry != null) {
+        return entry.value;
+      } // if
+      // A miss is only trustworthy if the table did not grow under us.
+      AtomicReferenceArray<Entry<K, V>> current = segment.table;
+      if (current == table) {
+        return DEAD;
+      } // if
+      table = current;
+    } // while
+  } // lookup(K)
+
+  // +---------------+-----------------------------------------------
+  // | Inner Classes |
+  // +---------------+
+
+  /**
+   * A key, its hash, and its (changeable) value.
+   */
+  static class Entry<K, V> {
+    /**
+     * The key, or null for REMOVED.
+     */
+    final K key;
+
+    /**
+     * The spread hash of the key.
+     */
+    final int hash;
+
+    /**
+     * The value, or DEAD once the key has been removed.
+     */
+    volatile Object value;
+
+    /**
+     * Create a new entry.
+     */
+    Entry(K key, int hash, Object value) {
+      this.key = key;
+      this.hash = hash;
+      this.value = value;
+    } // Entry(K, int, Object)
+  } // class Entry
+
+  /**
+   * One independently locked open-addressing hash table. Only
+   * threads that hold the segment's monitor may change it.
+   */
+  static class Segment<K, V> {
+    /**
+     * The table. Replaced as a whole when it is rebuilt.
+     */
+    volatile AtomicReferenceArray<Entry<K, V>> table;
+
+    /**
+     * The number of live entries.
+     */
+    volatile int size;
+
+    /**
+     * The number of non-null slots.
+     */
+    int used;
+
+    /**
+     * The number of REMOVED slots.
+     */
+    int removed;
+
+    /**
+     * The number of used slots at which we grow.
+     */
+    int threshold;
+
+    /**
+     * Create an empty segment.
+     */
+    Segment() {
+      this.allocate(AssociativeArray.DEFAULT_CAPACITY);
+    } // Segment()
+
+    /**
+     * Find the live entry for key in table, or null if there is none.
+     */
+    static <K, V> Entry<K, V> probe(AtomicReferenceArray<Entry<K, V>> table, K key, int hash) {
+      int mask = table.length() - 1;
+      int i = hash & mask;
+      Entry<K, V> entry;
+      while ((entry = table.get(i)) != null) {
+        if ((entry.hash == hash) && (entry.key != null) && key.equals(entry.key)
+            && (entry.value != DEAD)) {
+          return entry;
+        } // if
+        i = (i + 1) & mask;
+      } // while
+      return null;
+    } // probe(AtomicReferenceArray, K, int)
+
+    /**
+     * Set the value for key, whose spread hash is hash.
+     */
+    synchronized void set(K key, int hash, V value) {
+      AtomicReferenceArray<Entry<K, V>> table = this.table;
+      int mask = table.length() - 1;
+      int i = hash & mask;
+      int reusable = -1;
+      Entry<K, V> entry;
+      while ((entry = table.get(i)) != null) {
+        if (entry == REMOVED) {
+          if (reusable == -1) {
+            reusable = i;
+          } // if
+        } else if ((entry.hash == hash) && key.equals(entry.key)) {
+          entry.value = value;
+          return;
+        } // if/else
+        i = (i + 1) & mask;
+      } // while
+      if (reusable != -1) {
+        this.removed--;
+        i = reusable;
+      } else if (this.used >= this.threshold) {
+        this.rehash((this.size < this.threshold / 2) ? table.length() : table.length() * 2);
+        table = this.table;
+        mask = table.length() - 1;
+        i = hash & mask;
+        while (table.get(i) != null) {
+          i = (i + 1) & mask;
+        } // while
+        this.used++;
+      } else {
+        this.used++;
+      } // if/else
+      table.set(i, new Entry<K, V>(key, hash, value));
+      this.size = this.size + 1;
+    } // set(K, int, V)
+
+    /**
+     * Remove key, whose spread hash is hash.
+     */
+    @SuppressWarnings({ "unchecked" })
+    synchronized void remove(K key, int hash) {
+      AtomicReferenceArray<Entry<K, V>> table = this.table;
+      int mask = table.length() - 1;
+      int i = hash & mask;
+      Entry<K, V> entry;
+      while ((entry = table.get(i)) != null) {
+        if ((entry.hash == hash) && (entry.key != null) && key.equals(entry.key)) {
+          entry.value = DEAD;
+          table.set(i, (Entry<K, V>) (Entry<?, ?>) REMOVED);
+          this.size = this.size - 1;
+          this.removed++;
+          if (this.removed > table.length() * AssociativeArray.TOMBSTONE_RATIO) {
+            this.rehash(table.length());
+          } // if
+          return;
+        } // if
+        i = (i + 1) & mask;
+      } // while
+    } // remove(K, int)
+
+    /**
+     * Publish an empty table of the given capacity.
+     */
+    void allocate(int capacity) {
+      this.table = new AtomicReferenceArray<Entry<K, V>>(capacity);
+      this.threshold = (int) Math.min(capacity - 1L,
+          (long) (capacity * AssociativeArray.DEFAULT_LOAD_FACTOR));
+      this.used = 0;
+      this.removed = 0;
+    } // allocate(int)
+
+    /**
+     * Copy the live entries into a new table of the given capacity and
+     * publish it. The entries themselves are shared with the old table,
+     * so readers of either see the same values.
+     */
+    void rehash(int capacity) {
+      if ((capacity <= 0) || (capacity > AssociativeArray.MAXIMUM_CAPACITY)) {
+        throw new IllegalStateException("associative array is too large");
+      } // if
+      AtomicReferenceArray<Entry<K, V>> old = this.table;
+      AtomicReferenceArray<Entry<K, V>> fresh = new AtomicReferenceArray<Entry<K, V>>(capacity);
+      int mask = capacity - 1;
+      int count = 0;
+      for (int j = 0; j < old.length(); j++) {
+        Entry<K, V> entry = old.get(j);
+        if ((entry != null) && (entry != REMOVED)) {
+          int i = entry.hash & mask;
+          while (fresh.get(i) != null) {
+            i = (i + 1) & mask;
+          } // while
+          // A plain store is enough; publishing the table below is volatile.
+          fresh.lazySet(i, entry);
+          count++;
+        } // if
+      } // for
+      this.threshold = (int) Math.min(capacity - 1L,
+          (long) (capacity * AssociativeArray.DEFAULT_LOAD_FACTOR));
+      this.used = count;
+      this.removed = 0;
+      this.table = fresh;
+    } // rehash(int)
+  } // class Segment
+
+} // class ConcurrentAssociativeArray
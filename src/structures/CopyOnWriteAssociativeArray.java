@@ -0,0 +1,127 @@
+package structures;
+
+/**
+ * A thread-safe associative array for tables that are read far more
+ * often than they are written. The pairs live in a FlatAssociativeArray
+ * that is never changed once it has been published. Readers simply
+ * read the current table and look the key up, with no locks, no
+ * retries and no stores, so gets and hasKeys never wait for anyone.
+ * Writers take a lock, copy the current table, change the copy, and
+ * publish it with a single volatile store, so each write costs time
+ * proportional to the size of the table.
+ *
+ * @author Lucas Willett
+ */
+public class CopyOnWriteAssociativeArray<K, V> {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The current table. Never modified after it is stored here.
+   */
+  volatile FlatAssociativeArray<K, V> table;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty associative array.
+   */
+  public CopyOnWriteAssociativeArray() {
+    this.table = new FlatAssociativeArray<K, V>();
+  } // CopyOnWriteAssociativeArray()
+
+  // +------------------+--------------------------------------------
+  // | Standard Methods |
+  // +------------------+
+
+  /**
+   * Convert the array to a string.
+   */
+  public String toString() {
+    return this.table.toString();
+  } // toString()
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Set the value associated with key to value. Future calls to
+   * get(key) will return value.
+   *
+   * @throws NullKeyException
+   *   when the key is null.
+   */
+  public synchronized void set(K key, V value) throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException("null keys are not permitted");
+    } // if
+    FlatAssociativeArray<K, V> next = this.table.clone();
+    next.set(key, value);
+    this.table = next;
+  } // set(K,V)
+
+  /**
+   * Set the value associated with each keys[i] to values[i], publishing
+   * all of the changes at once, for the cost of a single copy.
+   *
+   * @throws NullKeyException
+   *   when one of the keys is null, in which case nothing changes.
+   * @throws IllegalArgumentException
+   *   when the arrays differ in length.
+   */
+  public synchronized void setAll(K[] keys, V[] values) throws NullKeyException {
+    if (keys.length != values.length) {
+      throw new IllegalArgumentException("have " + keys.length + " keys but "
+          + values.length + " values");
+    } // if
+    FlatAssociativeArray<K, V> next = this.table.clone();
+    for (int i = 0; i < keys.length; i++) {
+      next.set(keys[i], values[i]);
+    } // for
+    this.table = next;
+  } // setAll(K[], V[])
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws KeyNotFoundException
+   *   when the key is null or does not appear in the associative array.
+   */
+  public V get(K key) throws KeyNotFoundException {
+    return this.table.get(key);
+  } // get(K)
+
+  /**
+   * Determine if key appears in the associative array. Returns
+   * false for the null key.
+   */
+  public boolean hasKey(K key) {
+    return this.table.hasKey(key);
+  } // hasKey(K)
+
+  /**
+   * Remove the key/value pair associated with a key. Future calls
+   * to get(key) will throw an exception. If the key does not appear
+   * in the associative array, does nothing (and copies nothing).
+   */
+  public synchronized void remove(K key) {
+    if (!this.table.hasKey(key)) {
+      return;
+    } // if
+    FlatAssociativeArray<K, V> next = this.table.clone();
+    next.remove(key);
+    this.table = next;
+  } // remove(K)
+
+  /**
+   * Determine how many key/value pairs are in the associative array.
+   */
+  public int size() {
+    return this.table.size();
+  } // size()
+
+} // class CopyOnWriteAssociativeArray
@@ -0,0 +1,680 @@
+package structures;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.zip.CRC32;
+
+/**
+ * An AssociativeArray that survives crashes. It keeps its pairs in an
+ * ordinary AssociativeArray, and keeps a directory holding
+ *
+ * - a checkpoint: a full snapshot of the pairs, in the format of
+ *   AssociativeArrayCodec, as of the start of some log generation;
+ * - the logs: one file per generation, to which every set and remove
+ *   is appended (before it is applied) as a record of the form
+ *
+ *     [int length][int CRC][byte op][int keyLength][int valueLength]
+ *     [key][value]
+ *
+ *   where length and the CRC cover everything after the CRC.
+ *
+ * Opening the directory loads the checkpoint and replays only the logs
+ * from its generation on, stopping at the first torn or corrupt
+ * record. Once the current log passes a size limit, checkpoint() starts
+ * a new generation, writes a snapshot of the pairs to a temporary
+ * file, renames it over the old checkpoint, and deletes the logs the
+ * new checkpoint covers. The snapshot is taken with the constant-time
+ * clone(), so while it is written, changes cost at most one copy of
+ * the table rather than waiting for the file.
+ *
+ * How soon a change reaches the disk is up to the SyncPolicy. Under
+ * ALWAYS, threads that change the array at about the same time share
+ * a single force of the log (group commit).
+ *
+ * All of the methods are thread-safe.
+ *
+ * @author Lucas Willett
+ */
+public class DurableAssociativeArray<K, V> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * When changes are forced to the disk.
+   */
+  public enum SyncPolicy {
+    /**
+     * Every set and remove returns only once its record is on the
+     * disk. Concurrent changes share forces.
+     */
+    ALWAYS,
+
+    /**
+     * Records are collected in memory and written and forced a buffer
+     * at a time (and by sync, checkpoint and close). A crash loses at
+     * most the changes since the last full buffer.
+     */
+    BATCH,
+
+    /**
+     * Records are handed to the operating system as they happen, but
+     * only forced by sync, checkpoint and close. Changes survive the
+     * process dying, but not the machine.
+     */
+    NEVER
+  } // enum SyncPolicy
+
+  /**
+   * The default log size at which we checkpoint.
+   */
+  static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20;
+
+  /**
+   * The largest log size at which we may checkpoint, so that any log
+   * can be mapped in one piece when we replay it.
+   */
+  static final long MAXIMUM_CHECKPOINT_BYTES = 1L << 30;
+
+  /**
+   * The size of the log buffer.
+   */
+  static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The magic number at the start of a checkpoint ("AADURABL").
+   */
+  static final long CHECKPOINT_MAGIC = 0x414144555241424CL;
+
+  /**
+   * The name of the checkpoint file.
+   */
+  static final String CHECKPOINT = "checkpoint";
+
+  /**
+   * The name of the checkpoint file while it is being written.
+   */
+  static final String CHECKPOINT_TEMP = "checkpoint.tmp";
+
+  /**
+   * The start of the name of each log file.
+   */
+  static final String LOG_PREFIX = "log.";
+
+  /**
+   * The bytes in a record before the op.
+   */
+  static final int RECORD_HEADER = 8;
+
+  /**
+   * The bytes in a record from the op to the key.
+   */
+  static final int RECORD_PREFIX = 9;
+
+  /**
+   * The op of a set record.
+   */
+  static final byte SET = 1;
+
+  /**
+   * The op of a remove record.
+   */
+  static final byte REMOVE = 2;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The pairs.
+   */
+  AssociativeArray<K, V> table;
+
+  /**
+   * The directory that holds the checkpoint and logs.
+   */
+  Path directory;
+
+  /**
+   * How we turn keys into bytes and back.
+   */
+  Serializer<K> keySerializer;
+
+  /**
+   * How we turn values into bytes and back.
+   */
+  Serializer<V> valueSerializer;
+
+  /**
+   * How we write and read checkpoints.
+   */
+  AssociativeArrayCodec<K, V> codec;
+
+  /**
+   * When we force the log.
+   */
+  SyncPolicy policy;
+
+  /**
+   * The log size at which we checkpoint.
+   */
+  long checkpointBytes;
+
+  /**
+   * The current log generation.
+   */
+  long generation;
+
+  /**
+   * The current log.
+   */
+  FileChannel log;
+
+  /**
+   * The size of the current log, counting the records in the buffer.
+   */
+  long logBytes;
+
+  /**
+   * Records not yet written to the log.
+   */
+  ByteBuffer buffer;
+
+  /**
+   * Checksums records.
+   */
+  CRC32 crc;
+
+  /**
+   * The number of records appended so far.
+   */
+  long appended;
+
+  /**
+   * The number of records known to be on the disk.
+   */
+  volatile long durable;
+
+  /**
+   * Held while forcing the log, so that only one thread forces it at
+   * a time and the others can wait for its force to cover them.
+   */
+  final Object syncLock = new Object();
+
+  /**
+   * Held while checkpointing.
+   */
+  final Object checkpointLock = new Object();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Set up an array in directory. Call recover before using it.
+   */
+  DurableAssociativeArray(Path directory, Serializer<K> keySerializer,
+      Serializer<V> valueSerializer, SyncPolicy policy, long checkpointBytes) {
+    if ((checkpointBytes <= 0) || (checkpointBytes > MAXIMUM_CHECKPOINT_BYTES)) {
+      throw new IllegalArgumentException("illegal checkpoint size: " + checkpointBytes);
+    } // if
+    this.directory = directory;
+    this.keySerializer = keySerializer;
+    this.valueSerializer = valueSerializer;
+    this.codec = new AssociativeArrayCodec<K, V>(keySerializer, valueSerializer);
+    this.policy = policy;
+    this.checkpointBytes = checkpointBytes;
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    this.crc = new CRC32();
+  } // DurableAssociativeArray(Path, Serializer, Serializer, SyncPolicy, long)
+
+  /**
+   * Open the array stored in directory, creating the directory and
+   * an empty array if need be. Every change is on the disk before it
+   * returns.
+   *
+   * @throws IOException
+   *   when the directory cannot be read or written.
+   */
+  public static <K, V> DurableAssociativeArray<K, V> open(Path directory,
+      Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+    return open(directory, keySerializer, valueSerializer, SyncPolicy.ALWAYS,
+        DEFAULT_CHECKPOINT_BYTES);
+  } // open(Path, Serializer, Serializer)
+
+  /**
+   * Open the array stored in directory, creating the directory and
+   * an empty array if need be, syncing changes according to policy and
+   * checkpointing whenever the log grows past checkpointBytes.
+   *
+   * @throws IOException
+   *   when the directory cannot be read or written.
+   * @throws IllegalArgumentException
+   *   when checkpointBytes is not positive or is over 1GB.
+   */
+  public static <K, V> DurableAssociativeArray<K, V> open(Path directory,
+      Serializer<K> keySerializer, Serializer<V> valueSerializer, SyncPolicy policy,
+      long checkpointBytes) throws IOException {
+    DurableAssociativeArray<K, V> array = new DurableAssociativeArray<K, V>(directory,
+        keySerializer, valueSerializer, policy, checkpointBytes);
+    array.recover();
+    return array;
+  } // open(Path, Serializer, Serializer, SyncPolicy, long)
+
+  // +------------------+--------------------------------------------
+  // | Standard Methods |
+  // +------------------+
+
+  /**
+   * Convert the array to a string.
+   */
+  public synchronized String toString() {
+    return this.table.toString();
+  } // toString()
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Set the value associated with key to value. Future calls to
+   * get(key) will return value, even after a crash if the policy
+   * is ALWAYS.
+   *
+   * @throws NullKeyException
+   *   when the key is null.
+   * @throws UncheckedIOException
+   *   when the log cannot be written.
+   */
+  public void set(K key, V value) throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException("null keys are not permitted");
+    } // if
+    long record;
+    synchronized (this) {
+      record = this.append(SET, key, value);
+      this.table.set(key, value);
+    } // synchronized
+    this.commit(record);
+  } // set(K,V)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws KeyNotFoundException
+   *   when the key is null or does not appear in the associative array.
+   */
+  public synchronized V get(K key) throws KeyNotFoundException {
+    return this.table.get(key);
+  } // get(K)
+
+  /**
+   * Determine if key appears in the associative array. Returns
+   * false for the null key.
+   */
+  public synchronized boolean hasKey(K key) {
+    return this.table.hasKey(key);
+  } // hasKey(K)
+
+  /**
+   * Remove the key/value pair associated with a key. Future calls
+   * to get(key) will throw an exception. If the key does not appear
+   * in the associative array, does nothing (and logs nothing).
+   *
+   * @throws UncheckedIOException
+   *   when the log cannot be written.
+   */
+  public void remove(K key) {
+    long record;
+    synchronized (this) {
+      if (!this.table.hasKey(key)) {
+        return;
+      } // if
+      record = this.append(REMOVE, key, null);
+      this.table.remove(key);
+    } // synchronized
+    this.commit(record);
+  } // remove(K)
+
+  /**
+   * Determine how many key/value pairs are in the associative array.
+   */
+  public synchronized int size() {
+    return this.table.size();
+  } // size()
+
+  /**
+   * Force every change so far to the disk, whatever the policy.
+   *
+   * @throws IOException
+   *   when the log cannot be written.
+   */
+  public void sync() throws IOException {
+    long record;
+    synchronized (this) {
+      record = this.appended;
+    } // synchronized
+    this.force(record);
+  } // sync()
+
+  /**
+   * Write a checkpoint of the current pairs, and delete the logs it
+   * makes unnecessary. Changes can go on while the checkpoint is
+   * written.
+   *
+   * @throws IOException
+   *   when the checkpoint or the log cannot be written.
+   */
+  public void checkpoint() throws IOException {
+    synchronized (this.checkpointLock) {
+      AssociativeArray<K, V> snapshot;
+      long snapshotGeneration;
+      synchronized (this.syncLock) {
+        FileChannel old;
+        long record;
+        synchronized (this) {
+          this.writeBuffer();
+          record = this.appended;
+          old = this.log;
+          snapshotGeneration = this.generation + 1;
+          this.openLog(snapshotGeneration);
+          snapshot = this.table.clone();
+        } // synchronized
+        old.force(false);
+        old.close();
+        this.durable = Math.max(this.durable, record);
+      } // synchronized
+      this.writeCheckpoint(snapshot, snapshotGeneration);
+      for (long gen : this.logGenerations()) {
+        if (gen < snapshotGeneration) {
+          Files.deleteIfExists(this.logPath(gen));
+        } // if
+      } // for
+    } // synchronized
+  } // checkpoint()
+
+  /**
+   * Force every change to the disk and close the log. The array cannot
+   * be changed afterwards.
+   *
+   * @throws IOException
+   *   when the log cannot be written.
+   */
+  public void close() throws IOException {
+    synchronized (this.syncLock) {
+      synchronized (this) {
+        this.writeBuffer();
+        this.log.force(false);
+        this.durable = this.appended;
+        this.log.close();
+      } // synchronized
+    } // synchronized
+  } // close()
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Append a record to the log buffer, writing the buffer out as the
+   * policy demands. Returns the number of records appended, including
+   * this one. Must hold the lock on this.
+   */
+  long append(byte op, K key, V value) {
+    int keyLength = this.keySerializer.sizeOf(key);
+    int valueLength = (value == null) ? -1 : this.valueSerializer.sizeOf(value);
+    int body = RECORD_PREFIX + keyLength + Math.max(valueLength, 0);
+    try {
+      if (this.buffer.remaining() < RECORD_HEADER + body) {
+        this.writeBuffer();
+        if (this.policy == SyncPolicy.BATCH) {
+          this.log.force(false);
+          this.durable = this.appended;
+        } // if
+        if (this.buffer.capacity() < RECORD_HEADER + body) {
+          this.buffer = ByteBuffer.allocate(RECORD_HEADER + body);
+        } // if
+      } // if
+      int start = this.buffer.position();
+      this.buffer.position(start + RECORD_HEADER);
+      this.buffer.put(op).putInt(keyLength).putInt(valueLength);
+      this.keySerializer.write(key, this.buffer);
+      if (value != null) {
+        this.valueSerializer.write(value, this.buffer);
+      } // if
+      if (this.buffer.position() != start + RECORD_HEADER + body) {
+        throw new IllegalStateException("serializer wrote the wrong number of bytes");
+      } // if
+      ByteBuffer written = this.buffer.duplicate();
+      written.limit(this.buffer.position()).position(start + RECORD_HEADER);
+      this.crc.reset();
+      this.crc.update(written);
+      this.buffer.putInt(start, body).putInt(start + 4, (int) this.crc.getValue());
+      this.logBytes += RECORD_HEADER + body;
+      this.appended++;
+      if (this.policy != SyncPolicy.BATCH) {
+        this.writeBuffer();
+      } // if
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+    return this.appended;
+  } // append(byte, K, V)
+
+  /**
+   * Write the buffered records to the log. Must hold the lock on this.
+   */
+  void writeBuffer() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.log.write(this.buffer);
+    } // while
+    this.buffer.clear();
+  } // writeBuffer()
+
+  /**
+   * Finish a change whose record number is record: force it if the
+   * policy says so, and checkpoint if the log has grown too big.
+   */
+  void commit(long record) {
+    try {
+      if (this.policy == SyncPolicy.ALWAYS) {
+        this.force(record);
+      } // if
+      if (this.logBytes > this.checkpointBytes) {
+        synchronized (this.checkpointLock) {
+          // Another thread may have beaten us to it.
+          if (this.logBytes > this.checkpointBytes) {
+            this.checkpoint();
+          } // if
+        } // synchronized
+      } // if
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+  } // commit(long)
+
+  /**
+   * Make sure the first record records are on the disk. If another
+   * thread is forcing the log, we wait for it, and then only force the
+   * log ourselves if its force did not cover our record.
+   */
+  void force(long record) throws IOException {
+    if (this.durable >= record) {
+      return;
+    } // if
+    synchronized (this.syncLock) {
+      if (this.durable >= record) {
+        return;
+      } // if
+      long covered;
+      FileChannel channel;
+      synchronized (this) {
+        this.writeBuffer();
+        covered = this.appended;
+        channel = this.log;
+      } // synchronized
+      // Others may append while we force; they wait for the next one.
+      channel.force(false);
+      this.durable = covered;
+    } // synchronized
+  } // force(long)
+
+  /**
+   * Load the checkpoint, replay the logs that follow it, and open the
+   * newest log for appending.
+   */
+  void recover() throws IOException {
+    Files.createDirectories(this.directory);
+    Files.deleteIfExists(this.directory.resolve(CHECKPOINT_TEMP));
+    long first = 0;
+    Path checkpoint = this.directory.resolve(CHECKPOINT);
+    if (Files.exists(checkpoint)) {
+      try (FileChannel channel = FileChannel.open(checkpoint, StandardOpenOption.READ)) {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        while (header.hasRemaining()) {
+          if (channel.read(header) < 0) {
+            throw new IOException("checkpoint is truncated");
+          } // if
+        } // while
+        if (header.getLong(0) != CHECKPOINT_MAGIC) {
+          throw new IOException("not a checkpoint: " + checkpoint);
+        } // if
+        first = header.getLong(8);
+        this.table = this.codec.read(channel);
+      } // try
+    } else {
+      this.table = new AssociativeArray<K, V>();
+    } // if/else
+    this.generation = first;
+    long validBytes = 0;
+    for (long gen : this.logGenerations()) {
+      if (gen >= first) {
+        this.generation = gen;
+        validBytes = this.replay(this.logPath(gen));
+      } // if
+    } // for
+    this.log = FileChannel.open(this.logPath(this.generation), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+    // Drop any torn record at the end, so new records follow good ones.
+    this.log.truncate(validBytes);
+    this.log.position(validBytes);
+    this.logBytes = validBytes;
+  } // recover()
+
+  /**
+   * Apply the records in the log at path to the table, stopping at
+   * the first one that is incomplete or fails its CRC. Returns the
+   * number of bytes of good records.
+   */
+  long replay(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long length = Math.min(channel.size(), Integer.MAX_VALUE);
+      MappedByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+      int pos = 0;
+      while (log.limit() - pos >= RECORD_HEADER) {
+        int body = log.getInt(pos);
+        if ((body < RECORD_PREFIX) || (body > log.limit() - pos - RECORD_HEADER)) {
+          break;
+        } // if
+        ByteBuffer record = log.duplicate();
+        record.limit(pos + RECORD_HEADER + body).position(pos + RECORD_HEADER);
+        this.crc.reset();
+        this.crc.update(record.duplicate());
+        if (log.getInt(pos + 4) != (int) this.crc.getValue()) {
+          break;
+        } // if
+        byte op = record.get();
+        int keyLength = record.getInt();
+        int valueLength = record.getInt();
+        if ((keyLength < 0) || (RECORD_PREFIX + keyLength + Math.max(valueLength, 0) != body)) {
+          break;
+        } // if
+        K key = this.keySerializer.read(record, keyLength);
+        if (op == SET) {
+          V value = (valueLength < 0) ? null : this.valueSerializer.read(record, valueLength);
+          this.table.set(key, value);
+        } else {
+          this.table.remove(key);
+        } // if/else
+        pos += RECORD_HEADER + body;
+      } // while
+      return pos;
+    } catch (NullKeyException e) {
+      throw new IOException("log holds a null key: " + path, e);
+    } // try/catch
+  } // replay(Path)
+
+  /**
+   * Start log generation gen. Must hold the lock on this.
+   */
+  void openLog(long gen) throws IOException {
+    this.log = FileChannel.open(this.logPath(gen), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    this.generation = gen;
+    this.logBytes = 0;
+  } // openLog(long)
+
+  /**
+   * Write snapshot as the checkpoint for generation gen: first to a
+   * temporary file, then renamed into place.
+   */
+  void writeCheckpoint(AssociativeArray<K, V> snapshot, long gen) throws IOException {
+    Path temp = this.directory.resolve(CHECKPOINT_TEMP);
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(16);
+      header.putLong(CHECKPOINT_MAGIC).putLong(gen).flip();
+      while (header.hasRemaining()) {
+        channel.write(header);
+      } // while
+      this.codec.write(snapshot, channel);
+      channel.force(true);
+    } // try
+    Files.move(temp, this.directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    // Make the rename itself durable, where the platform lets us.
+    try (FileChannel dir = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+      dir.force(true);
+    } catch (IOException e) {
+      // Some platforms cannot open directories; the rename stands anyway.
+    } // try/catch
+  } // writeCheckpoint(AssociativeArray, long)
+
+  /**
+   * List the generations of the logs in the directory, oldest first.
+   */
+  ArrayList<Long> logGenerations() throws IOException {
+    ArrayList<Long> gens = new ArrayList<Long>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory,
+        LOG_PREFIX + "*")) {
+      for (Path file : files) {
+        try {
+          gens.add(Long.parseLong(file.getFileName().toString().substring(LOG_PREFIX.length())));
+        } catch (NumberFormatException e) {
+          // Not one of ours.
+        } // try/catch
+      } // for
+    } // try
+    Collections.sort(gens);
+    return gens;
+  } // logGenerations()
+
+  /**
+   * Find the log file for generation gen.
+   */
+  Path logPath(long gen) {
+    return this.directory.resolve(LOG_PREFIX + String.format("%016d", gen));
+  } // logPath(long)
+
+} // class DurableAssociativeArray
@@ -0,0 +1,440 @@
+package structures;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * An associative array with the same behavior as AssociativeArray,
+ * but a flatter layout. Rather than one KVPair object per entry, keys
+ * and values live in parallel Object arrays, and each slot also caches
+ * the spread hash code of its key in an int array. A probe therefore
+ * compares ints in a dense array and only calls equals (and only
+ * touches the key object) when the hash codes match, and growing the
+ * table never has to call hashCode again.
+ *
+ * Pair objects are only created on demand, when someone iterates
+ * entries(); forEach creates none at all.
+ *
+ * @author Lucas Willett
+ */
+public class FlatAssociativeArray<K, V> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The marker we leave in `keys` when a key is removed, so that the
+   * probe sequences of other keys are not broken.
+   */
+  static final Object REMOVED = new Object();
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of key/value pairs.
+   */
+  int size;
+
+  /**
+   * The number of slots in each array (always a power of two).
+   */
+  int capacity;
+
+  /**
+   * The number of non-null slots in `keys`, including removed ones.
+   */
+  int used;
+
+  /**
+   * The number of REMOVED slots in `keys`.
+   */
+  int removed;
+
+  /**
+   * The fraction of the slots we fill before growing.
+   */
+  double loadFactor;
+
+  /**
+   * The number of used slots at which we grow.
+   */
+  int threshold;
+
+  /**
+   * The keys. Empty slots hold null and removed ones hold REMOVED.
+   */
+  Object[] keys;
+
+  /**
+   * The values, parallel to the keys.
+   */
+  Object[] values;
+
+  /**
+   * The spread hash code of each key, parallel to the keys.
+   */
+  int[] hashes;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty associative array.
+   */
+  public FlatAssociativeArray() {
+    this(AssociativeArray.DEFAULT_LOAD_FACTOR);
+  } // FlatAssociativeArray()
+
+  /**
+   * Create a new, empty associative array that grows once the given
+   * fraction of its slots are in use.
+   *
+   * @throws IllegalArgumentException
+   *   when loadFactor is not strictly between 0 and 1.
+   */
+  public FlatAssociativeArray(double loadFactor) {
+    if (!(loadFactor > 0 && loadFactor < 1)) {
+      throw new IllegalArgumentException("illegal load factor: " + loadFactor);
+    } // if
+    this.loadFactor = loadFactor;
+    this.allocate(AssociativeArray.DEFAULT_CAPACITY);
+  } // FlatAssociativeArray(double)
+
+  /**
+   * Create a copy of original's table (see clone), without first
+   * allocating an empty one.
+   */
+  private FlatAssociativeArray(FlatAssociativeArray<K, V> original) {
+    this.size = original.size;
+    this.capacity = original.capacity;
+    this.used = original.used;
+    this.removed = original.removed;
+    this.loadFactor = original.loadFactor;
+    this.threshold = original.threshold;
+    this.keys = original.keys.clone();
+    this.values = original.values.clone();
+    this.hashes = original.hashes.clone();
+  } // FlatAssociativeArray(FlatAssociativeArray)
+
+  // +------------------+--------------------------------------------
+  // | Standard Methods |
+  // +------------------+
+
+  /**
+   * Create a copy of this associative array.
+   */
+  public FlatAssociativeArray<K, V> clone() {
+    return new FlatAssociativeArray<K, V>(this);
+  } // clone()
+
+  /**
+   * Convert the array to a string.
+   */
+  public String toString() {
+    if (this.size == 0) {
+      return "{}";
+    } // if
+    StringBuilder str = new StringBuilder("{ ");
+    for (int i = 0; i < this.capacity; i++) {
+      if (this.isLive(i)) {
+        str.append(this.keys[i]).append(": ").append(this.values[i]).append(", ");
+      } // if
+    } // for
+    str.setLength(str.length() - 2);
+    return str.append(" }").toString();
+  } // toString()
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Set the value associated with key to value. Future calls to
+   * get(key) will return value.
+   *
+   * @throws NullKeyException
+   *   when the key is null.
+   */
+  public void set(K key, V value) throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException("null keys are not permitted");
+    } // if
+    int hash = AssociativeArray.spread(key.hashCode());
+    int i = this.probe(key, hash);
+    if (i >= 0) {
+      this.values[i] = value;
+      return;
+    } // if
+    i = -(i + 1);
+    if (this.keys[i] == REMOVED) {
+      this.removed--;
+    } else if (this.isFull()) {
+      // Growing moves everything, so the slot we found is stale.
+      this.expand();
+      i = -(this.probe(key, hash) + 1);
+      this.used++;
+    } else {
+      this.used++;
+    } // if/else
+    this.keys[i] = key;
+    this.values[i] = value;
+    this.hashes[i] = hash;
+    this.size++;
+  } // set(K,V)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws KeyNotFoundException
+   *   when the key is null or does not appear in the associative array.
+   */
+  @SuppressWarnings({ "unchecked" })
+  public V get(K key) throws KeyNotFoundException {
+    int i = this.find(key);
+    if (i < 0) {
+      throw new KeyNotFoundException();
+    } // if
+    return (V) this.values[i];
+  } // get(K)
+
+  /**
+   * Get the value associated with key, or defaultValue if the key is
+   * null or does not appear in the associative array.
+   */
+  @SuppressWarnings({ "unchecked" })
+  public V getOrDefault(K key, V defaultValue) {
+    int i = this.find(key);
+    return (i < 0) ? defaultValue : (V) this.values[i];
+  } // getOrDefault(K,V)
+
+  /**
+   * Get the value associated with key, or null if the key is null or
+   * does not appear in the associative array.
+   */
+  public V getOrNull(K key) {
+    return this.getOrDefault(key, null);
+  } // getOrNull(K)
+
+  /**
+   * Determine if key appears in the associative array. Returns
+   * false for the null key.
+   */
+  public boolean hasKey(K key) {
+    return this.find(key) >= 0;
+  } // hasKey(K)
+
+  /**
+   * Determine if the array has used up its load factor, so that the
+   * next new key forces it to grow.
+   */
+  public boolean isFull() {
+    return this.used >= this.threshold;
+  } // isFull()
+
+  /**
+   * Remove the key/value pair associated with a key. Future calls
+   * to get(key) will throw an exception. If the key does not appear
+   * in the associative array, does nothing.
+   */
+  public void remove(K key) {
+    int i = this.find(key);
+    if (i < 0) {
+      return;
+    } // if
+    this.keys[i] = REMOVED;
+    this.values[i] = null;
+    this.size--;
+    this.removed++;
+    if (this.removed > this.capacity * AssociativeArray.TOMBSTONE_RATIO) {
+      this.compact();
+    } // if
+  } // remove(K)
+
+  /**
+   * Determine how many key/value pairs are in the associative array.
+   */
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Rebuild the table in place, dropping removed slots.
+   */
+  public void compact() {
+    this.rehash(this.capacity);
+  } // compact()
+
+  /**
+   * Shrink the table to the smallest capacity that holds the current
+   * pairs without growing.
+   */
+  public void trimToSize() {
+    this.rehash(AssociativeArray.tableSizeFor(this.size, this.loadFactor));
+  } // trimToSize()
+
+  /**
+   * Call action on each key and its value, in table order, without
+   * creating any KVPairs.
+   */
+  @SuppressWarnings({ "unchecked" })
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    for (int i = 0; i < this.capacity; i++) {
+      if (this.isLive(i)) {
+        action.accept((K) this.keys[i], (V) this.values[i]);
+      } // if
+    } // for
+  } // forEach(BiConsumer)
+
+  /**
+   * Get a read-only view of the key/value pairs. Each entry is built
+   * as the iteration reaches it, as a snapshot of one pair. The view
+   * is backed by the array; if the array changes while the view is
+   * being traversed, the traversal may or may not see the change.
+   */
+  public Collection<Map.Entry<K, V>> entries() {
+    return new AbstractCollection<Map.Entry<K, V>>() {
+      public int size() {
+        return FlatAssociativeArray.this.size;
+      } // size()
+
+      public Iterator<Map.Entry<K, V>> iterator() {
+        return new Iterator<Map.Entry<K, V>>() {
+          int next = advance(0);
+
+          int advance(int i) {
+            while ((i < capacity) && !isLive(i)) {
+              i++;
+            } // while
+            return i;
+          } // advance(int)
+
+          public boolean hasNext() {
+            return this.next < capacity;
+          } // hasNext()
+
+          @SuppressWarnings({ "unchecked" })
+          public Map.Entry<K, V> next() {
+            if (!this.hasNext()) {
+              throw new NoSuchElementException();
+            } // if
+            int i = this.next;
+            this.next = advance(i + 1);
+            return new AbstractMap.SimpleImmutableEntry<K, V>((K) keys[i], (V) values[i]);
+          } // next()
+        }; // new Iterator
+      } // iterator()
+    }; // new AbstractCollection
+  } // entries()
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Determine if slot i holds a key.
+   */
+  boolean isLive(int i) {
+    Object key = this.keys[i];
+    return (key != null) && (key != REMOVED);
+  } // isLive(int)
+
+  /**
+   * Grow the table (or, if it is mostly removed slots, just rebuild
+   * it at the same size).
+   */
+  void expand() {
+    if (this.size < this.threshold / 2) {
+      this.rehash(this.capacity);
+      return;
+    } // if
+    if (this.capacity >= AssociativeArray.MAXIMUM_CAPACITY) {
+      throw new IllegalStateException("associative array is too large");
+    } // if
+    this.rehash(this.capacity * 2);
+  } // expand()
+
+  /**
+   * Replace the arrays with empty ones of newCapacity slots.
+   */
+  void allocate(int newCapacity) {
+    this.keys = new Object[newCapacity];
+    this.values = new Object[newCapacity];
+    this.hashes = new int[newCapacity];
+    this.capacity = newCapacity;
+    this.threshold = (int) Math.min(newCapacity - 1L,
+        (long) (newCapacity * this.loadFactor));
+    this.size = 0;
+    this.used = 0;
+    this.removed = 0;
+  } // allocate(int)
+
+  /**
+   * Move every pair into fresh arrays of newCapacity slots, using the
+   * cached hash codes.
+   */
+  void rehash(int newCapacity) {
+    Object[] oldKeys = this.keys;
+    Object[] oldValues = this.values;
+    int[] oldHashes = this.hashes;
+    this.allocate(newCapacity);
+    int mask = newCapacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      Object key = oldKeys[j];
+      if ((key != null) && (key != REMOVED)) {
+        int i = oldHashes[j] & mask;
+        while (this.keys[i] != null) {
+          i = (i + 1) & mask;
+        } // while
+        this.keys[i] = key;
+        this.values[i] = oldValues[j];
+        this.hashes[i] = oldHashes[j];
+        this.size++;
+      } // if
+    } // for
+    this.used = this.size;
+  } // rehash(int)
+
+  /**
+   * Find the index of the slot that holds key, or -1 if there is none.
+   */
+  int find(K key) {
+    if (key == null) {
+      return -1;
+    } // if
+    int i = this.probe(key, AssociativeArray.spread(key.hashCode()));
+    return (i >= 0) ? i : -1;
+  } // find(K)
+
+  /**
+   * Walk the probe sequence for a non-null key with the given spread
+   * hash once. Returns the index of the slot that holds key if there
+   * is one and otherwise -(slot + 1), where slot is the first removed
+   * or empty slot along the way.
+   */
+  int probe(K key, int hash) {
+    int mask = this.capacity - 1;
+    int i = hash & mask;
+    int reusable = -1;
+    Object k;
+    while ((k = this.keys[i]) != null) {
+      if (k == REMOVED) {
+        if (reusable == -1) {
+          reusable = i;
+        } // if
+      } else if ((this.hashes[i] == hash) && ((k == key) || key.equals(k))) {
+        return i;
+      } // if/else
+      i = (i + 1) & mask;
+    } // while
+    return -(((reusable == -1) ? i : reusable) + 1);
+  } // probe(K,int)
+
+} // class FlatAssociativeArray
@@ -7,6 +7,17 @@ package structures;
  * @author Samuel A. Rebelsky
  */
 public class KeyNotFoundException extends Exception {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * A shared exception with no stack trace, for callers that miss
+   * often enough that filling in stack traces shows up in profiles.
+   */
+  static final KeyNotFoundException STACKLESS =
+      new KeyNotFoundException("key not found", false);
+
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -24,4 +35,25 @@ public class KeyNotFoundException extends Exception {
   public KeyNotFoundException(String message) {
     super(message);
   } // KeyNotFoundException(String)
+
+  /**
+   * Create a new exception with a particular message that records
+   * its stack trace only if stackTrace is true. Exceptions without
+   * stack traces are cheap to create, and (since they also refuse
+   * causes and suppressed exceptions) safe to share.
+   */
+  protected KeyNotFoundException(String message, boolean stackTrace) {
+    super(message, null, stackTrace, stackTrace);
+  } // KeyNotFoundException(String, boolean)
+
+  // +----------------+----------------------------------------------
+  // | Static Methods |
+  // +----------------+
+
+  /**
+   * Get the shared exception without a stack trace.
+   */
+  public static KeyNotFoundException stackless() {
+    return STACKLESS;
+  } // stackless()
 } // class KeyNotFoundException
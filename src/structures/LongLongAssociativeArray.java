@@ -0,0 +1,348 @@
+package structures;
+
+/**
+ * An associative array from long keys to long values. It follows the
+ * same rules as AssociativeArray, but keeps its keys and values in
+ * parallel long arrays, so nothing is boxed and no KVPair is allocated
+ * per entry.
+ *
+ * @author Lucas Willett
+ */
+public class LongLongAssociativeArray {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The state of a slot that has never held a key.
+   */
+  static final byte EMPTY = 0;
+
+  /**
+   * The state of a slot that holds a key.
+   */
+  static final byte FULL = 1;
+
+  /**
+   * The state of a slot whose key has been removed.
+   */
+  static final byte REMOVED = 2;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of key/value pairs.
+   */
+  int size;
+
+  /**
+   * The number of slots in each array (always a power of two).
+   */
+  int capacity;
+
+  /**
+   * The number of slots that are not EMPTY.
+   */
+  int used;
+
+  /**
+   * The number of REMOVED slots.
+   */
+  int removed;
+
+  /**
+   * The fraction of the slots we fill before growing.
+   */
+  double loadFactor;
+
+  /**
+   * The number of used slots at which we grow.
+   */
+  int threshold;
+
+  /**
+   * The state of each slot.
+   */
+  byte[] states;
+
+  /**
+   * The keys.
+   */
+  long[] keys;
+
+  /**
+   * The values, parallel to the keys.
+   */
+  long[] values;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty associative array.
+   */
+  public LongLongAssociativeArray() {
+    this(AssociativeArray.DEFAULT_LOAD_FACTOR);
+  } // LongLongAssociativeArray()
+
+  /**
+   * Create a new, empty associative array that grows once the given
+   * fraction of its slots are in use.
+   *
+   * @throws IllegalArgumentException
+   *   when loadFactor is not strictly between 0 and 1.
+   */
+  public LongLongAssociativeArray(double loadFactor) {
+    if (!(loadFactor > 0 && loadFactor < 1)) {
+      throw new IllegalArgumentException("illegal load factor: " + loadFactor);
+    } // if
+    this.loadFactor = loadFactor;
+    this.allocate(AssociativeArray.DEFAULT_CAPACITY);
+  } // LongLongAssociativeArray(double)
+
+  /**
+   * Create a copy of original (see clone), without first allocating
+   * an empty table.
+   */
+  private LongLongAssociativeArray(LongLongAssociativeArray original) {
+    this.size = original.size;
+    this.capacity = original.capacity;
+    this.used = original.used;
+    this.removed = original.removed;
+    this.loadFactor = original.loadFactor;
+    this.threshold = original.threshold;
+    this.states = original.states.clone();
+    this.keys = original.keys.clone();
+    this.values = original.values.clone();
+  } // LongLongAssociativeArray(LongLongAssociativeArray)
+
+  // +------------------+--------------------------------------------
+  // | Standard Methods |
+  // +------------------+
+
+  /**
+   * Create a copy of this associative array.
+   */
+  public LongLongAssociativeArray clone() {
+    return new LongLongAssociativeArray(this);
+  } // clone()
+
+  /**
+   * Convert the array to a string.
+   */
+  public String toString() {
+    if (this.size == 0) {
+      return "{}";
+    } // if
+    StringBuilder str = new StringBuilder("{ ");
+    for (int i = 0; i < this.capacity; i++) {
+      if (this.states[i] == FULL) {
+        str.append(this.keys[i]).append(": ").append(this.values[i]).append(", ");
+      } // if
+    } // for
+    str.setLength(str.length() - 2);
+    return str.append(" }").toString();
+  } // toString()
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Set the value associated with key to value. Future calls to
+   * get(key) will return value.
+   */
+  public void set(long key, long value) {
+    int i = this.probe(key);
+    if (i >= 0) {
+      this.values[i] = value;
+      return;
+    } // if
+    i = -(i + 1);
+    if (this.states[i] == REMOVED) {
+      this.removed--;
+    } else if (this.isFull()) {
+      // Growing moves everything, so the slot we found is stale.
+      this.expand();
+      i = -(this.probe(key) + 1);
+      this.used++;
+    } else {
+      this.used++;
+    } // if/else
+    this.states[i] = FULL;
+    this.keys[i] = key;
+    this.values[i] = value;
+    this.size++;
+  } // set(long,long)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws KeyNotFoundException
+   *   when the key does not appear in the associative array.
+   */
+  public long get(long key) throws KeyNotFoundException {
+    int i = this.find(key);
+    if (i < 0) {
+      throw new KeyNotFoundException();
+    } // if
+    return this.values[i];
+  } // get(long)
+
+  /**
+   * Get the value associated with key, or defaultValue if the key
+   * does not appear in the associative array.
+   */
+  public long getOrDefault(long key, long defaultValue) {
+    int i = this.find(key);
+    return (i < 0) ? defaultValue : this.values[i];
+  } // getOrDefault(long,long)
+
+  /**
+   * Determine if key appears in the associative array.
+   */
+  public boolean hasKey(long key) {
+    return this.find(key) >= 0;
+  } // hasKey(long)
+
+  /**
+   * Determine if the array has used up its load factor, so that the
+   * next new key forces it to grow.
+   */
+  public boolean isFull() {
+    return this.used >= this.threshold;
+  } // isFull()
+
+  /**
+   * Remove the key/value pair associated with a key. Future calls
+   * to get(key) will throw an exception. If the key does not appear
+   * in the associative array, does nothing.
+   */
+  public void remove(long key) {
+    int i = this.find(key);
+    if (i < 0) {
+      return;
+    } // if
+    this.states[i] = REMOVED;
+    this.size--;
+    this.removed++;
+    if (this.removed > this.capacity * AssociativeArray.TOMBSTONE_RATIO) {
+      this.compact();
+    } // if
+  } // remove(long)
+
+  /**
+   * Determine how many key/value pairs are in the associative array.
+   */
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Rebuild the table in place, dropping removed slots.
+   */
+  public void compact() {
+    this.rehash(this.capacity);
+  } // compact()
+
+  /**
+   * Shrink the table to the smallest capacity that holds the current
+   * pairs without growing.
+   */
+  public void trimToSize() {
+    this.rehash(AssociativeArray.tableSizeFor(this.size, this.loadFactor));
+  } // trimToSize()
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Grow the table (or, if it is mostly removed slots, just rebuild
+   * it at the same size).
+   */
+  void expand() {
+    if (this.size < this.threshold / 2) {
+      this.rehash(this.capacity);
+      return;
+    } // if
+    if (this.capacity >= AssociativeArray.MAXIMUM_CAPACITY) {
+      throw new IllegalStateException("associative array is too large");
+    } // if
+    this.rehash(this.capacity * 2);
+  } // expand()
+
+  /**
+   * Replace the arrays with empty ones of newCapacity slots.
+   */
+  void allocate(int newCapacity) {
+    this.states = new byte[newCapacity];
+    this.keys = new long[newCapacity];
+    this.values = new long[newCapacity];
+    this.capacity = newCapacity;
+    this.threshold = (int) Math.min(newCapacity - 1L,
+        (long) (newCapacity * this.loadFactor));
+    this.size = 0;
+    this.used = 0;
+    this.removed = 0;
+  } // allocate(int)
+
+  /**
+   * Move every pair into fresh arrays of newCapacity slots.
+   */
+  void rehash(int newCapacity) {
+    byte[] oldStates = this.states;
+    long[] oldKeys = this.keys;
+    long[] oldValues = this.values;
+    this.allocate(newCapacity);
+    int mask = newCapacity - 1;
+    for (int j = 0; j < oldStates.length; j++) {
+      if (oldStates[j] == FULL) {
+        int i = AssociativeArray.spread(oldKeys[j]) & mask;
+        while (this.states[i] != EMPTY) {
+          i = (i + 1) & mask;
+        } // while
+        this.states[i] = FULL;
+        this.keys[i] = oldKeys[j];
+        this.values[i] = oldValues[j];
+        this.size++;
+      } // if
+    } // for
+    this.used = this.size;
+  } // rehash(int)
+
+  /**
+   * Find the index of the slot that holds key, or -1 if there is none.
+   */
+  int find(long key) {
+    int i = this.probe(key);
+    return (i >= 0) ? i : -1;
+  } // find(long)
+
+  /**
+   * Walk the probe sequence for key once. Returns the index of the
+   * slot that holds key if there is one and otherwise -(slot + 1),
+   * where slot is the first removed or empty slot along the way.
+   */
+  int probe(long key) {
+    int mask = this.capacity - 1;
+    int i = AssociativeArray.spread(key) & mask;
+    int reusable = -1;
+    byte state;
+    while ((state = this.states[i]) != EMPTY) {
+      if (state == REMOVED) {
+        if (reusable == -1) {
+          reusable = i;
+        } // if
+      } else if (this.keys[i] == key) {
+        return i;
+      } // if/else
+      i = (i + 1) & mask;
+    } // while
+    return -(((reusable == -1) ? i : reusable) + 1);
+  } // probe(long)
+
+} // class LongLongAssociativeArray
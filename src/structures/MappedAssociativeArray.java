@@ -0,0 +1,692 @@
+package structures;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * An off-heap associative array whose table and data chunks are
+ * regions of a memory-mapped file, so that it survives the process
+ * and reopening it only means mapping the file again.
+ *
+ * The file starts with two header copies, followed by the regions.
+ * Each header describes a consistent state of the file: where the
+ * table and chunks are, how far each chunk is filled, and the counts
+ * we keep. Headers carry a generation number and a CRC, and we always
+ * overwrite the older copy, so a torn header write leaves the other,
+ * valid one in place.
+ *
+ * Records are only ever appended (removals append a record too), so
+ * the chunks named by a header are a log we can replay. flush() forces
+ * the mapped regions to disk and then writes a CLEAN header. The first
+ * change after a flush writes a DIRTY header first; if we find a DIRTY
+ * header on open, the table may be half-updated, so we rebuild it by
+ * replaying the chunks up to the point the header recorded, which gives
+ * us the state as of the last flush.
+ *
+ * Rebuilding the table at the same size (to drop removed slots) swaps
+ * between two regions. Other space (outgrown tables, replaced and
+ * removed records) is reclaimed by compact(), which writes the live
+ * records to a fresh file and renames it over the old one. We compact
+ * on our own once at least half of the file is dead.
+ *
+ * @author Lucas Willett
+ */
+public class MappedAssociativeArray<K, V> extends OffHeapAssociativeArray<K, V> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The magic number at the start of each header ("AAMAPPED").
+   */
+  static final long MAGIC = 0x41414D4150504544L;
+
+  /**
+   * The version of the file format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The number of bytes set aside for each header copy.
+   */
+  static final int HEADER_BYTES = 4096;
+
+  /**
+   * The number of bytes in the fixed part of a header, before the
+   * chunk directory.
+   */
+  static final int HEADER_FIXED_BYTES = 96;
+
+  /**
+   * The number of bytes in each chunk directory entry: the chunk's
+   * offset in the file (long), its size (int) and how much of it is
+   * filled (int).
+   */
+  static final int DIRECTORY_ENTRY_BYTES = 16;
+
+  /**
+   * The largest number of chunks a header can describe.
+   */
+  static final int MAXIMUM_CHUNKS =
+      (HEADER_BYTES - HEADER_FIXED_BYTES - 4) / DIRECTORY_ENTRY_BYTES;
+
+  /**
+   * The header state when the table matches the chunks.
+   */
+  static final int CLEAN = 1;
+
+  /**
+   * The header state when the table may have changed since the header
+   * was written.
+   */
+  static final int DIRTY = 2;
+
+  /**
+   * The value length that marks a record as a removal.
+   */
+  static final int REMOVAL = -2;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Where the file is.
+   */
+  Path path;
+
+  /**
+   * The file.
+   */
+  FileChannel channel;
+
+  /**
+   * The mapped header copies.
+   */
+  MappedByteBuffer headers;
+
+  /**
+   * The generation of the most recent header.
+   */
+  long generation;
+
+  /**
+   * The state of the most recent header.
+   */
+  int state;
+
+  /**
+   * The offset of the table in the file.
+   */
+  long tableOffset;
+
+  /**
+   * The offset of the region the table used before its last rebuild,
+   * or -1 if there is none.
+   */
+  long spareOffset = -1;
+
+  /**
+   * The size of the region at spareOffset.
+   */
+  int spareBytes;
+
+  /**
+   * The offset of each chunk in the file, parallel to `chunks`.
+   */
+  ArrayList<Long> chunkOffsets;
+
+  /**
+   * The end of the used part of the file.
+   */
+  long fileEnd;
+
+  /**
+   * The first chunk that has changed since the last flush.
+   */
+  int dirtyChunk;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Set up (but do not yet map) an array on channel.
+   */
+  MappedAssociativeArray(FileChannel channel, Serializer<K> keySerializer,
+      Serializer<V> valueSerializer, double loadFactor, int maxChunkSize) {
+    super(keySerializer, valueSerializer, loadFactor, maxChunkSize, false);
+    this.channel = channel;
+    this.chunkOffsets = new ArrayList<Long>();
+  } // MappedAssociativeArray(FileChannel, Serializer, Serializer, double, int)
+
+  /**
+   * Open the associative array stored in the file at path, creating
+   * an empty one if the file does not exist or is empty.
+   *
+   * @throws IOException
+   *   when the file cannot be opened or is not a valid array.
+   */
+  public static <K, V> MappedAssociativeArray<K, V> open(Path path,
+      Serializer<K> keySerializer, Serializer<V> valueSerializer)
+      throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      boolean fresh = (channel.size() == 0);
+      ByteBuffer header = fresh ? null : readHeader(channel);
+      double loadFactor = fresh ? AssociativeArray.DEFAULT_LOAD_FACTOR : header.getDouble(80);
+      int maxChunkSize = fresh ? DEFAULT_MAX_CHUNK_SIZE : header.getInt(88);
+      MappedAssociativeArray<K, V> array = new MappedAssociativeArray<K, V>(channel,
+          keySerializer, valueSerializer, loadFactor, maxChunkSize);
+      array.path = path;
+      array.headers = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2 * HEADER_BYTES);
+      if (fresh) {
+        array.fileEnd = 2 * HEADER_BYTES;
+        array.clear();
+        array.flush();
+      } else {
+        array.restore(header);
+      } // if/else
+      return array;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    } // try/catch
+  } // open(Path, Serializer, Serializer)
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Set the value associated with key to value. Future calls to
+   * get(key) will return value.
+   *
+   * @throws NullKeyException
+   *   when the key is null.
+   * @throws UncheckedIOException
+   *   when the header cannot be written.
+   */
+  public void set(K key, V value) throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException("null keys are not permitted");
+    } // if
+    this.markDirty();
+    super.set(key, value);
+  } // set(K,V)
+
+  /**
+   * Remove the key/value pair associated with a key. Future calls
+   * to get(key) will throw an exception. If the key does not appear
+   * in the associative array, does nothing.
+   *
+   * @throws UncheckedIOException
+   *   when the header cannot be written.
+   */
+  public void remove(K key) {
+    // recordRemoval marks us dirty once the single probe has found the
+    // key, so a missing key leaves the header alone.
+    super.remove(key);
+  } // remove(K)
+
+  /**
+   * Remove every key/value pair.
+   */
+  public void clear() {
+    if (this.headers != null) {
+      this.markDirty();
+    } // if
+    super.clear();
+    this.dirtyChunk = 0;
+  } // clear()
+
+  /**
+   * Copy the live records, and a table sized for them, into a fresh
+   * file, flush it, and rename it over ours, giving back all of the
+   * dead space. Like flush, this makes every change so far durable.
+   * A crash part way through leaves the old file as it was (plus a
+   * stray file next to it, which the next compaction overwrites).
+   *
+   * @throws UncheckedIOException
+   *   when the new file cannot be written.
+   */
+  public void compact() {
+    Path temp = this.path.resolveSibling(this.path.getFileName() + ".compact");
+    MappedAssociativeArray<K, V> fresh = null;
+    try {
+      FileChannel freshChannel = FileChannel.open(temp, StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+      fresh = new MappedAssociativeArray<K, V>(freshChannel, this.keySerializer,
+          this.valueSerializer, this.loadFactor, this.maxChunkSize);
+      fresh.path = this.path;
+      fresh.headers = freshChannel.map(FileChannel.MapMode.READ_WRITE, 0, 2 * HEADER_BYTES);
+      fresh.fileEnd = 2 * HEADER_BYTES;
+      fresh.chunks = new ArrayList<ByteBuffer>();
+      // The table shrinks to fit, too.
+      int newCapacity = Math.max(AssociativeArray.DEFAULT_CAPACITY,
+          AssociativeArray.tableSizeFor(this.size, this.loadFactor));
+      fresh.allocate(newCapacity);
+      int mask = newCapacity - 1;
+      for (int j = 0; j < this.capacity; j++) {
+        long ref = this.refAt(j);
+        if ((ref != EMPTY) && (ref != REMOVED)) {
+          ByteBuffer chunk = this.chunks.get(chunkOf(ref));
+          int offset = offsetOf(ref);
+          int length = recordLength(chunk, offset);
+          ByteBuffer record = chunk.duplicate();
+          record.limit(offset + length).position(offset);
+          long copy = fresh.reserve(length);
+          fresh.tail.put(record);
+          fresh.liveBytes += length;
+          int hash = this.table.getInt(j * SLOT_BYTES + 8);
+          int i = hash & mask;
+          while (fresh.refAt(i) != EMPTY) {
+            i = (i + 1) & mask;
+          } // while
+          fresh.putSlot(fresh.table, i, copy, hash, this.table.getInt(j * SLOT_BYTES + 12));
+          fresh.size++;
+        } // if
+      } // for
+      fresh.used = fresh.size;
+      fresh.flush();
+      Files.move(temp, this.path, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      if (fresh != null) {
+        try {
+          fresh.channel.close();
+        } catch (IOException suppressed) {
+          e.addSuppressed(suppressed);
+        } // try/catch
+      } // if
+      throw new UncheckedIOException(e);
+    } // try/catch
+    // Make the rename itself durable, where the platform lets us.
+    try (FileChannel dir = FileChannel.open(this.path.toAbsolutePath().getParent(),
+        StandardOpenOption.READ)) {
+      dir.force(true);
+    } catch (IOException e) {
+      // Some platforms cannot open directories; the rename stands anyway.
+    } // try/catch
+    try {
+      this.channel.close();
+    } catch (IOException e) {
+      // The old file is gone anyway.
+    } // try/catch
+    this.adopt(fresh);
+  } // compact()
+
+  /**
+   * Force every change to the file and record the new state in a
+   * CLEAN header. After this returns, reopening the file gives the
+   * current contents even if the process dies.
+   *
+   * @throws IOException
+   *   when the file cannot be written.
+   */
+  public void flush() throws IOException {
+    ((MappedByteBuffer) this.table).force();
+    for (int i = this.dirtyChunk; i < this.chunks.size(); i++) {
+      ((MappedByteBuffer) this.chunks.get(i)).force();
+    } // for
+    this.dirtyChunk = Math.max(0, this.chunks.size() - 1);
+    this.writeHeader(CLEAN);
+  } // flush()
+
+  /**
+   * Flush and close the file. The array cannot be used afterwards.
+   *
+   * @throws IOException
+   *   when the file cannot be written.
+   */
+  public void close() throws IOException {
+    try {
+      this.flush();
+    } finally {
+      this.table = null;
+      this.chunks = null;
+      this.tail = null;
+      this.headers = null;
+      this.channel.close();
+    } // try/finally
+  } // close()
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Take over the file and state of other, which replaces us.
+   */
+  void adopt(MappedAssociativeArray<K, V> other) {
+    this.channel = other.channel;
+    this.headers = other.headers;
+    this.generation = other.generation;
+    this.state = other.state;
+    this.table = other.table;
+    this.capacity = other.capacity;
+    this.threshold = other.threshold;
+    this.size = other.size;
+    this.used = other.used;
+    this.removed = other.removed;
+    this.tableOffset = other.tableOffset;
+    this.spareOffset = other.spareOffset;
+    this.spareBytes = other.spareBytes;
+    this.chunks = other.chunks;
+    this.chunkOffsets = other.chunkOffsets;
+    this.tail = other.tail;
+    this.fileEnd = other.fileEnd;
+    this.dirtyChunk = other.dirtyChunk;
+    this.liveBytes = other.liveBytes;
+    this.garbageBytes = other.garbageBytes;
+  } // adopt(MappedAssociativeArray)
+
+  /**
+   * Compact once at least half of the file is dead: replaced and
+   * removed records, and regions nothing refers to any more.
+   */
+  void collectGarbage() {
+    long regions = 2 * HEADER_BYTES + this.table.capacity()
+        + ((this.spareOffset >= 0) ? this.spareBytes : 0);
+    for (ByteBuffer chunk : this.chunks) {
+      regions += chunk.capacity();
+    } // for
+    long dead = this.garbageBytes + (this.fileEnd - regions);
+    if ((dead > this.fileEnd / 2) && (dead > FIRST_CHUNK_SIZE)) {
+      this.compact();
+    } // if
+  } // collectGarbage()
+
+  /**
+   * Write a DIRTY header before the first change after a flush.
+   */
+  void markDirty() {
+    if (this.state == CLEAN) {
+      try {
+        this.writeHeader(DIRTY);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } // try/catch
+    } // if
+  } // markDirty()
+
+  /**
+   * Map a zeroed region for a new table: the region the table used
+   * before, if it is the right size, or else a new one at the end of
+   * the file. (Reusing an old table region is safe because recovery
+   * never trusts table contents written after a flush.)
+   */
+  ByteBuffer newTable(int bytes) {
+    long oldOffset = this.tableOffset;
+    int oldBytes = (this.table == null) ? 0 : this.table.capacity();
+    ByteBuffer region;
+    if ((this.spareOffset >= 0) && (this.spareBytes == bytes)) {
+      this.tableOffset = this.spareOffset;
+      try {
+        region = this.channel.map(FileChannel.MapMode.READ_WRITE, this.tableOffset, bytes);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } // try/catch
+    } else {
+      this.tableOffset = this.fileEnd;
+      region = this.mapRegion(this.tableOffset, bytes);
+    } // if/else
+    this.spareOffset = (oldBytes == 0) ? -1 : oldOffset;
+    this.spareBytes = oldBytes;
+    for (int i = 0; i < bytes; i += 8) {
+      region.putLong(i, 0);
+    } // for
+    return region;
+  } // newTable(int)
+
+  /**
+   * Map a region at the end of the file for a new chunk.
+   */
+  ByteBuffer newChunk(int bytes) {
+    if (this.chunks.size() >= MAXIMUM_CHUNKS) {
+      throw new IllegalStateException("too many chunks for the file header");
+    } // if
+    if (this.chunks.isEmpty()) {
+      this.chunkOffsets.clear();
+    } // if
+    this.chunkOffsets.add(this.fileEnd);
+    return this.mapRegion(this.fileEnd, bytes);
+  } // newChunk(int)
+
+  /**
+   * Map bytes bytes at offset, which must be the end of the file.
+   */
+  ByteBuffer mapRegion(long offset, int bytes) {
+    try {
+      MappedByteBuffer region = this.channel.map(FileChannel.MapMode.READ_WRITE, offset, bytes);
+      this.fileEnd = offset + bytes;
+      return region;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+  } // mapRegion(long, int)
+
+  /**
+   * Append a record noting the removal of the key in scratch, after
+   * writing a DIRTY header if this is the first change since a flush.
+   */
+  void recordRemoval(int keyLength) {
+    this.markDirty();
+    int length = RECORD_HEADER + keyLength;
+    this.reserve(length);
+    this.tail.putInt(keyLength);
+    this.tail.putInt(REMOVAL);
+    this.tail.put(this.scratch);
+    this.scratch.rewind();
+    this.garbageBytes += length;
+  } // recordRemoval(int)
+
+  /**
+   * Describe the current state in the older header copy, making it
+   * the newer one.
+   */
+  void writeHeader(int newState) throws IOException {
+    long newGeneration = this.generation + 1;
+    int base = (int) (newGeneration % 2) * HEADER_BYTES;
+    ByteBuffer header = this.headers.duplicate();
+    header.limit(base + HEADER_BYTES).position(base);
+    header = header.slice();
+    header.putLong(0, MAGIC);
+    header.putInt(8, VERSION);
+    header.putInt(12, newState);
+    header.putLong(16, newGeneration);
+    header.putInt(24, this.capacity);
+    header.putInt(28, this.size);
+    header.putInt(32, this.used);
+    header.putInt(36, this.removed);
+    header.putLong(40, this.tableOffset);
+    header.putLong(48, this.liveBytes);
+    header.putLong(56, this.garbageBytes);
+    header.putLong(64, this.fileEnd);
+    header.putInt(72, this.chunks.size());
+    header.putInt(76, 0);
+    header.putDouble(80, this.loadFactor);
+    header.putInt(88, this.maxChunkSize);
+    header.putInt(92, 0);
+    for (int i = 0; i < this.chunks.size(); i++) {
+      int entry = HEADER_FIXED_BYTES + i * DIRECTORY_ENTRY_BYTES;
+      ByteBuffer chunk = this.chunks.get(i);
+      header.putLong(entry, this.chunkOffsets.get(i));
+      header.putInt(entry + 8, chunk.capacity());
+      header.putInt(entry + 12,
+          (i == this.chunks.size() - 1) ? this.tail.position() : chunk.limit());
+    } // for
+    int end = HEADER_FIXED_BYTES + this.chunks.size() * DIRECTORY_ENTRY_BYTES;
+    header.putInt(end, crc(header, end));
+    this.headers.force();
+    this.generation = newGeneration;
+    this.state = newState;
+  } // writeHeader(int)
+
+  /**
+   * Read both header copies and return (a view of) the newest valid
+   * one.
+   *
+   * @throws IOException
+   *   when neither copy is valid.
+   */
+  static ByteBuffer readHeader(FileChannel channel) throws IOException {
+    ByteBuffer best = null;
+    for (int copy = 0; copy < 2; copy++) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      while (header.hasRemaining()
+          && (channel.read(header, copy * HEADER_BYTES + header.position()) > 0)) {
+      } // while
+      if (header.hasRemaining() || (header.getLong(0) != MAGIC)) {
+        continue;
+      } // if
+      if (header.getInt(8) != VERSION) {
+        throw new IOException("unsupported mapped array version " + header.getInt(8));
+      } // if
+      int chunkCount = header.getInt(72);
+      if ((chunkCount < 0) || (chunkCount > MAXIMUM_CHUNKS)) {
+        continue;
+      } // if
+      int end = HEADER_FIXED_BYTES + chunkCount * DIRECTORY_ENTRY_BYTES;
+      if (header.getInt(end) != crc(header, end)) {
+        continue;
+      } // if
+      if ((best == null) || (header.getLong(16) > best.getLong(16))) {
+        best = header;
+      } // if
+    } // for
+    if (best == null) {
+      throw new IOException("no valid header in mapped array file");
+    } // if
+    return best;
+  } // readHeader(FileChannel)
+
+  /**
+   * Compute the CRC of the first length bytes of header.
+   */
+  static int crc(ByteBuffer header, int length) {
+    CRC32 crc = new CRC32();
+    ByteBuffer bytes = header.duplicate();
+    bytes.limit(length).position(0);
+    crc.update(bytes);
+    return (int) crc.getValue();
+  } // crc(ByteBuffer, int)
+
+  /**
+   * Map the table and chunks described by header, rebuilding the
+   * table if the header is DIRTY.
+   */
+  void restore(ByteBuffer header) throws IOException {
+    this.generation = header.getLong(16);
+    this.state = header.getInt(12);
+    this.capacity = header.getInt(24);
+    this.threshold = (int) Math.min(this.capacity - 1L,
+        (long) (this.capacity * this.loadFactor));
+    this.size = header.getInt(28);
+    this.used = header.getInt(32);
+    this.removed = header.getInt(36);
+    this.tableOffset = header.getLong(40);
+    this.liveBytes = header.getLong(48);
+    this.garbageBytes = header.getLong(56);
+    this.fileEnd = header.getLong(64);
+    // Anything past fileEnd was written after the header; drop it.
+    if (this.channel.size() > this.fileEnd) {
+      this.channel.truncate(this.fileEnd);
+    } // if
+    int chunkCount = header.getInt(72);
+    this.chunks = new ArrayList<ByteBuffer>();
+    for (int i = 0; i < chunkCount; i++) {
+      int entry = HEADER_FIXED_BYTES + i * DIRECTORY_ENTRY_BYTES;
+      long offset = header.getLong(entry);
+      MappedByteBuffer chunk =
+          this.channel.map(FileChannel.MapMode.READ_WRITE, offset, header.getInt(entry + 8));
+      int filled = header.getInt(entry + 12);
+      this.chunkOffsets.add(offset);
+      this.chunks.add(chunk);
+      if (i == chunkCount - 1) {
+        this.tail = chunk.duplicate();
+        this.tail.position(filled);
+      } else {
+        chunk.limit(filled);
+      } // if/else
+    } // for
+    this.table = this.channel.map(FileChannel.MapMode.READ_WRITE, this.tableOffset,
+        (long) this.capacity * SLOT_BYTES);
+    this.dirtyChunk = 0;
+    if (this.state == DIRTY) {
+      this.replay();
+      this.flush();
+    } // if
+  } // restore(ByteBuffer)
+
+  /**
+   * Rebuild the table by replaying every record in the chunks.
+   */
+  void replay() {
+    for (int i = 0; i < this.table.capacity(); i += 8) {
+      this.table.putLong(i, 0);
+    } // for
+    this.size = 0;
+    this.used = 0;
+    this.removed = 0;
+    this.liveBytes = 0;
+    this.garbageBytes = 0;
+    for (int c = 0; c < this.chunks.size(); c++) {
+      ByteBuffer chunk = this.chunks.get(c);
+      int end = (c == this.chunks.size() - 1) ? this.tail.position() : chunk.limit();
+      int offset = 0;
+      while (offset < end) {
+        int keyLength = chunk.getInt(offset);
+        int length = recordLength(chunk, offset);
+        this.loadScratch(chunk, offset + RECORD_HEADER, keyLength);
+        int hash = this.hashScratch(keyLength);
+        int i = this.probe(hash, keyLength);
+        if (chunk.getInt(offset + 4) == REMOVAL) {
+          this.garbageBytes += length;
+          if (i >= 0) {
+            this.discard(this.refAt(i));
+            this.table.putLong(i * SLOT_BYTES, REMOVED);
+            this.size--;
+            this.removed++;
+          } // if
+        } else {
+          this.liveBytes += length;
+          long ref = refFor(c, offset);
+          if (i >= 0) {
+            this.discard(this.refAt(i));
+            this.table.putLong(i * SLOT_BYTES, ref);
+          } else {
+            this.insert(-(i + 1), ref, hash, keyLength);
+          } // if/else
+        } // if/else
+        offset += length;
+      } // while
+    } // for
+  } // replay()
+
+  /**
+   * Copy length bytes of chunk, starting at offset, into scratch.
+   */
+  void loadScratch(ByteBuffer chunk, int offset, int length) {
+    if (length > this.scratch.capacity()) {
+      this.scratch = ByteBuffer.allocate(Integer.highestOneBit(length - 1) << 1);
+    } // if
+    ByteBuffer key = chunk.duplicate();
+    key.limit(offset + length).position(offset);
+    this.scratch.clear();
+    this.scratch.put(key);
+    this.scratch.flip();
+  } // loadScratch(ByteBuffer, int, int)
+
+} // class MappedAssociativeArray
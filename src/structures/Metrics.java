@@ -0,0 +1,80 @@
+package structures;
+
+/**
+ * The counters an AssociativeArray keeps while it records metrics.
+ * Arrays that do not record metrics have none, so all they pay is a
+ * null check in each place that would count something.
+ *
+ * @author Lucas Willett
+ */
+class Metrics {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of buckets in the probe-length histogram.
+   */
+  static final int PROBE_BUCKETS = 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  long lookups;
+  long hits;
+  long misses;
+  long sets;
+  long removes;
+  long resizes;
+  long resizeNanos;
+  long maxResizeNanos;
+
+  /**
+   * probes[i] counts the probes that looked at between 2^i and
+   * 2^(i+1) - 1 slots; the last bucket also takes longer probes.
+   */
+  long[] probes = new long[PROBE_BUCKETS];
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Count a probe that looked at length slots.
+   */
+  void recordProbe(int length) {
+    int bucket = 31 - Integer.numberOfLeadingZeros(length);
+    this.probes[Math.min(bucket, PROBE_BUCKETS - 1)]++;
+  } // recordProbe(int)
+
+  /**
+   * Count a lookup.
+   */
+  void recordLookup(boolean hit) {
+    this.lookups++;
+    if (hit) {
+      this.hits++;
+    } else {
+      this.misses++;
+    } // if/else
+  } // recordLookup(boolean)
+
+  /**
+   * Count a rebuild of the table that took nanos nanoseconds.
+   */
+  void recordResize(long nanos) {
+    this.resizes++;
+    this.resizeNanos += nanos;
+    this.maxResizeNanos = Math.max(this.maxResizeNanos, nanos);
+  } // recordResize(long)
+
+  /**
+   * Copy the counters, along with the current shape of the table.
+   */
+  AssociativeArrayMetrics snapshot(int size, int capacity, int removed) {
+    return new AssociativeArrayMetrics(this.lookups, this.hits, this.misses, this.sets,
+        this.removes, this.probes.clone(), this.resizes, this.resizeNanos,
+        this.maxResizeNanos, size, capacity, removed);
+  } // snapshot(int, int, int)
+} // class Metrics
@@ -6,6 +6,16 @@ package structures;
  * @author Samuel A. Rebelsky
  */
 public class NullKeyException extends Exception {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * A shared exception with no stack trace.
+   */
+  static final NullKeyException STACKLESS =
+      new NullKeyException("null keys are not permitted", false);
+
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -23,4 +33,25 @@ public class NullKeyException extends Exception {
   public NullKeyException(String message) {
     super(message);
   } // NullKeyException(String)
+
+  /**
+   * Create a new exception with a particular message that records
+   * its stack trace only if stackTrace is true. Exceptions without
+   * stack traces are cheap to create, and (since they also refuse
+   * causes and suppressed exceptions) safe to share.
+   */
+  protected NullKeyException(String message, boolean stackTrace) {
+    super(message, null, stackTrace, stackTrace);
+  } // NullKeyException(String, boolean)
+
+  // +----------------+----------------------------------------------
+  // | Static Methods |
+  // +----------------+
+
+  /**
+   * Get the shared exception without a stack trace.
+   */
+  public static NullKeyException stackless() {
+    return STACKLESS;
+  } // stackless()
 } // class NullKeyException
@@ -0,0 +1,911 @@
+package structures;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * An associative array that keeps its keys, values and hash table
+ * outside the Java heap, in direct ByteBuffers, so that very large
+ * tables put no load on the garbage collector. Keys and values are
+ * turned into bytes by the Serializers given to the constructor.
+ *
+ * The table is an open-addressing hash table like the one in
+ * AssociativeArray, except that each SLOT_BYTES-byte slot holds a
+ * reference to a record plus the hash and length of its key. The
+ * records themselves are appended to a list of data chunks, each of
+ * which holds
+ *
+ *   [int key length][int value length, or -1 for null][key][value]
+ *
+ * Keys are compared and hashed as bytes, so lookups never deserialize
+ * a key. Replacing or removing a value leaves its old record behind
+ * as garbage; once garbage outweighs the live records, the chunks are
+ * rewritten (see compact()).
+ *
+ * save() writes the table and chunks to a snapshot file byte for
+ * byte, and load() and map() bring them back the same way, so a
+ * snapshot is ready for lookups without rebuilding anything, and keys
+ * and values are only deserialized when someone asks for them.
+ *
+ * @author Lucas Willett
+ */
+public class OffHeapAssociativeArray<K, V> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of bytes in a slot of the table: the reference to
+   * the record (long), the key's hash (int) and the key's length (int).
+   */
+  static final int SLOT_BYTES = 16;
+
+  /**
+   * The largest number of slots a table may have, so that the table
+   * fits in a single ByteBuffer.
+   */
+  static final int MAXIMUM_CAPACITY = 1 << 26;
+
+  /**
+   * The reference stored in a slot that has never held a key.
+   */
+  static final long EMPTY = 0;
+
+  /**
+   * The reference stored in a slot whose key has been removed.
+   */
+  static final long REMOVED = -1;
+
+  /**
+   * The number of bytes that precede the key in a record.
+   */
+  static final int RECORD_HEADER = 8;
+
+  /**
+   * The size of the first data chunk. Later chunks double in size up
+   * to the maximum chunk size.
+   */
+  static final int FIRST_CHUNK_SIZE = 1 << 16;
+
+  /**
+   * The default largest size for a data chunk.
+   */
+  static final int DEFAULT_MAX_CHUNK_SIZE = 1 << 28;
+
+  /**
+   * The magic number at the start of a snapshot file ("AASNAPSH").
+   */
+  static final long SNAPSHOT_MAGIC = 0x4141534E41505348L;
+
+  /**
+   * The version of the snapshot format.
+   */
+  static final int SNAPSHOT_VERSION = 1;
+
+  /**
+   * The number of bytes in a snapshot header, before the chunk sizes.
+   */
+  static final int SNAPSHOT_HEADER_BYTES = 64;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * How we turn keys into bytes.
+   */
+  Serializer<K> keySerializer;
+
+  /**
+   * How we turn values into bytes.
+   */
+  Serializer<V> valueSerializer;
+
+  /**
+   * The number of key/value pairs.
+   */
+  int size;
+
+  /**
+   * The number of slots in the table (always a power of two).
+   */
+  int capacity;
+
+  /**
+   * The number of slots that are not EMPTY.
+   */
+  int used;
+
+  /**
+   * The number of REMOVED slots.
+   */
+  int removed;
+
+  /**
+   * The fraction of the slots we fill before growing.
+   */
+  double loadFactor;
+
+  /**
+   * The number of used slots at which we grow.
+   */
+  int threshold;
+
+  /**
+   * The hash table.
+   */
+  ByteBuffer table;
+
+  /**
+   * The data chunks that hold the records, in the order they were
+   * added. Every chunk but the last has its limit set to the end of
+   * its last record.
+   */
+  ArrayList<ByteBuffer> chunks;
+
+  /**
+   * A view of the last chunk, positioned where the next record goes.
+   */
+  ByteBuffer tail;
+
+  /**
+   * The largest size for a data chunk (unless a single record needs
+   * more).
+   */
+  int maxChunkSize;
+
+  /**
+   * The number of bytes in records that are still referenced.
+   */
+  long liveBytes;
+
+  /**
+   * The number of bytes in records that have been replaced or removed.
+   */
+  long garbageBytes;
+
+  /**
+   * A reusable on-heap buffer that holds the serialized form of the
+   * key we are working with.
+   */
+  ByteBuffer scratch;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty off-heap associative array.
+   */
+  public OffHeapAssociativeArray(Serializer<K> keySerializer,
+      Serializer<V> valueSerializer) {
+    this(keySerializer, valueSerializer, AssociativeArray.DEFAULT_LOAD_FACTOR,
+        DEFAULT_MAX_CHUNK_SIZE);
+  } // OffHeapAssociativeArray(Serializer, Serializer)
+
+  /**
+   * Create a new, empty off-heap associative array with the given
+   * load factor and largest data chunk size.
+   *
+   * @throws IllegalArgumentException
+   *   when loadFactor is not strictly between 0 and 1, or when
+   *   maxChunkSize is not positive.
+   */
+  public OffHeapAssociativeArray(Serializer<K> keySerializer,
+      Serializer<V> valueSerializer, double loadFactor, int maxChunkSize) {
+    this(keySerializer, valueSerializer, loadFactor, maxChunkSize, true);
+  } // OffHeapAssociativeArray(Serializer, Serializer, double, int)
+
+  /**
+   * Set up an off-heap associative array. Subclasses that map existing
+   * storage pass false for allocate and fill in the table and chunks
+   * themselves.
+   */
+  OffHeapAssociativeArray(Serializer<K> keySerializer,
+      Serializer<V> valueSerializer, double loadFactor, int maxChunkSize,
+      boolean allocate) {
+    if (!(loadFactor > 0 && loadFactor < 1)) {
+      throw new IllegalArgumentException("illegal load factor: " + loadFactor);
+    } // if
+    if (maxChunkSize <= 0) {
+      throw new IllegalArgumentException("illegal chunk size: " + maxChunkSize);
+    } // if
+    this.keySerializer = keySerializer;
+    this.valueSerializer = valueSerializer;
+    this.loadFactor = loadFactor;
+    this.maxChunkSize = maxChunkSize;
+    this.scratch = ByteBuffer.allocate(64);
+    if (allocate) {
+      this.clear();
+    } // if
+  } // OffHeapAssociativeArray(Serializer, Serializer, double, int, boolean)
+
+  /**
+   * Load the snapshot at path (see save) by reading its table and
+   * chunks straight into direct buffers.
+   *
+   * @throws IOException
+   *   when the file cannot be read or is not a valid snapshot.
+   */
+  public static <K, V> OffHeapAssociativeArray<K, V> load(Path path,
+      Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return restore(channel, keySerializer, valueSerializer, false);
+    } // try
+  } // load(Path, Serializer, Serializer)
+
+  /**
+   * Load the snapshot at path (see save) by mapping its table and
+   * chunks into memory, so pages are only read as lookups touch them.
+   * The mapping is private: the array can still be changed, but the
+   * changes never reach the file. (Even so, Java only maps privately
+   * files it could write, so the file must be writable.)
+   *
+   * @throws IOException
+   *   when the file cannot be mapped or is not a valid snapshot.
+   */
+  public static <K, V> OffHeapAssociativeArray<K, V> map(Path path,
+      Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      return restore(channel, keySerializer, valueSerializer, true);
+    } // try
+  } // map(Path, Serializer, Serializer)
+
+  // +------------------+--------------------------------------------
+  // | Standard Methods |
+  // +------------------+
+
+  /**
+   * Convert the array to a string. Since this decodes every key and
+   * value, it is meant for small tables and debugging.
+   */
+  public String toString() {
+    if (this.size == 0) {
+      return "{}";
+    } // if
+    StringBuilder str = new StringBuilder("{ ");
+    this.forEach((key, value) -> str.append(key).append(": ").append(value).append(", "));
+    str.setLength(str.length() - 2);
+    return str.append(" }").toString();
+  } // toString()
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Set the value associated with key to value. Future calls to
+   * get(key) will return value.
+   *
+   * @throws NullKeyException
+   *   when the key is null.
+   */
+  public void set(K key, V value) throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException("null keys are not permitted");
+    } // if
+    int keyLength = this.encode(key);
+    int hash = this.hashScratch(keyLength);
+    int i = this.probe(hash, keyLength);
+    long ref = this.append(keyLength, value);
+    if (i >= 0) {
+      this.discard(this.refAt(i));
+      this.table.putLong(i * SLOT_BYTES, ref);
+      this.collectGarbage();
+      return;
+    } // if
+    this.insert(-(i + 1), ref, hash, keyLength);
+  } // set(K,V)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws KeyNotFoundException
+   *   when the key is null or does not appear in the associative array.
+   */
+  public V get(K key) throws KeyNotFoundException {
+    int i = this.find(key);
+    if (i < 0) {
+      throw new KeyNotFoundException();
+    } // if
+    return this.valueAt(this.refAt(i));
+  } // get(K)
+
+  /**
+   * Determine if key appears in the associative array. Returns
+   * false for the null key.
+   */
+  public boolean hasKey(K key) {
+    return this.find(key) >= 0;
+  } // hasKey(K)
+
+  /**
+   * Determine if the table has used up its load factor, so that the
+   * next new key forces it to grow.
+   */
+  public boolean isFull() {
+    return this.used >= this.threshold;
+  } // isFull()
+
+  /**
+   * Remove the key/value pair associated with a key. Future calls
+   * to get(key) will throw an exception. If the key does not appear
+   * in the associative array, does nothing.
+   */
+  public void remove(K key) {
+    int i = this.find(key);
+    if (i < 0) {
+      return;
+    } // if
+    this.recordRemoval(this.scratch.limit());
+    this.discard(this.refAt(i));
+    this.table.putLong(i * SLOT_BYTES, REMOVED);
+    this.size--;
+    this.removed++;
+    if (this.removed > this.capacity * AssociativeArray.TOMBSTONE_RATIO) {
+      this.rehash(this.capacity);
+    } // if
+    this.collectGarbage();
+  } // remove(K)
+
+  /**
+   * Determine how many key/value pairs are in the associative array.
+   */
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Determine how many bytes of off-heap memory the table and the
+   * data chunks occupy.
+   */
+  public long memoryUsed() {
+    long bytes = this.table.capacity();
+    for (ByteBuffer chunk : this.chunks) {
+      bytes += chunk.capacity();
+    } // for
+    return bytes;
+  } // memoryUsed()
+
+  /**
+   * Copy the live records into fresh chunks and rebuild the table,
+   * releasing the space held by replaced and removed records.
+   */
+  public void compact() {
+    ArrayList<ByteBuffer> oldChunks = this.chunks;
+    this.chunks = new ArrayList<ByteBuffer>();
+    this.tail = null;
+    this.liveBytes = 0;
+    this.garbageBytes = 0;
+    for (int i = 0; i < this.capacity; i++) {
+      long ref = this.refAt(i);
+      if ((ref != EMPTY) && (ref != REMOVED)) {
+        ByteBuffer chunk = oldChunks.get(chunkOf(ref));
+        int offset = offsetOf(ref);
+        int length = recordLength(chunk, offset);
+        ByteBuffer record = chunk.duplicate();
+        record.limit(offset + length).position(offset);
+        this.table.putLong(i * SLOT_BYTES, this.reserve(length));
+        this.tail.put(record);
+        this.liveBytes += length;
+      } // if
+    } // for
+    this.rehash(this.capacity);
+  } // compact()
+
+  /**
+   * Remove every key/value pair and release the off-heap memory they
+   * used.
+   */
+  public void clear() {
+    this.allocate(AssociativeArray.DEFAULT_CAPACITY);
+    this.chunks = new ArrayList<ByteBuffer>();
+    this.tail = null;
+    this.liveBytes = 0;
+    this.garbageBytes = 0;
+  } // clear()
+
+  /**
+   * Write the table and chunks, exactly as they are in memory, to a
+   * snapshot file at path, replacing anything already there. Garbage
+   * in the chunks is written too; compact first to leave it out.
+   */
+  public void save(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      int chunkCount = this.chunks.size();
+      ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES + 4 * chunkCount);
+      header.putLong(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(this.capacity)
+          .putInt(this.size).putInt(this.used).putInt(this.removed).putInt(this.maxChunkSize)
+          .putDouble(this.loadFactor).putLong(this.liveBytes).putLong(this.garbageBytes)
+          .putInt(chunkCount);
+      header.position(SNAPSHOT_HEADER_BYTES);
+      for (int c = 0; c < chunkCount; c++) {
+        header.putInt(this.filled(c));
+      } // for
+      header.flip();
+      long position = writeFully(channel, header, 0);
+      ByteBuffer table = this.table.duplicate();
+      table.clear();
+      position = writeFully(channel, table, align(position));
+      for (int c = 0; c < chunkCount; c++) {
+        ByteBuffer chunk = this.chunks.get(c).duplicate();
+        chunk.limit(this.filled(c)).position(0);
+        position = writeFully(channel, chunk, align(position));
+      } // for
+    } // try
+  } // save(Path)
+
+  /**
+   * Call action on each key and its value, in table order. Each key
+   * and value is deserialized as it is reached.
+   */
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    for (int i = 0; i < this.capacity; i++) {
+      long ref = this.refAt(i);
+      if ((ref != EMPTY) && (ref != REMOVED)) {
+        action.accept(this.keyAt(ref), this.valueAt(ref));
+      } // if
+    } // for
+  } // forEach(BiConsumer)
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Rebuild an array from the snapshot in channel, either reading or
+   * privately mapping its regions.
+   *
+   * @throws StreamCorruptedException
+   *   when the header or chunk sizes could not have come from save.
+   */
+  static <K, V> OffHeapAssociativeArray<K, V> restore(FileChannel channel,
+      Serializer<K> keySerializer, Serializer<V> valueSerializer, boolean map)
+      throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES);
+    readFully(channel, header, 0);
+    if ((header.getLong(0) != SNAPSHOT_MAGIC) || (header.getInt(8) != SNAPSHOT_VERSION)) {
+      throw new StreamCorruptedException("not an off-heap associative array snapshot");
+    } // if
+    int capacity = header.getInt(12);
+    int size = header.getInt(16);
+    int used = header.getInt(20);
+    int removed = header.getInt(24);
+    int maxChunkSize = header.getInt(28);
+    double loadFactor = header.getDouble(32);
+    long liveBytes = header.getLong(40);
+    long garbageBytes = header.getLong(48);
+    int chunkCount = header.getInt(56);
+    // Every count has to fit the table, and the chunk sizes have to
+    // fit the file, before we allocate anything from them.
+    if ((capacity < AssociativeArray.MINIMUM_CAPACITY) || (capacity > MAXIMUM_CAPACITY)
+        || (Integer.bitCount(capacity) != 1)
+        || (size < 0) || (removed < 0) || (used != size + removed) || (used >= capacity)
+        || (maxChunkSize <= 0) || !(loadFactor > 0 && loadFactor < 1)
+        || (liveBytes < 0) || (garbageBytes < 0)
+        || (chunkCount < 0)
+        || (SNAPSHOT_HEADER_BYTES + 4L * chunkCount > channel.size())) {
+      throw new StreamCorruptedException("corrupt off-heap associative array snapshot");
+    } // if
+    ByteBuffer sizes = ByteBuffer.allocate(4 * chunkCount);
+    readFully(channel, sizes, SNAPSHOT_HEADER_BYTES);
+    OffHeapAssociativeArray<K, V> array = new OffHeapAssociativeArray<K, V>(keySerializer,
+        valueSerializer, loadFactor, maxChunkSize, false);
+    array.capacity = capacity;
+    array.threshold = (int) Math.min(capacity - 1L, (long) (capacity * array.loadFactor));
+    array.size = size;
+    array.used = used;
+    array.removed = removed;
+    array.liveBytes = liveBytes;
+    array.garbageBytes = garbageBytes;
+    long position = align(SNAPSHOT_HEADER_BYTES + 4L * chunkCount);
+    array.table = region(channel, position, capacity * SLOT_BYTES, map);
+    position = align(position + capacity * SLOT_BYTES);
+    array.chunks = new ArrayList<ByteBuffer>();
+    for (int c = 0; c < chunkCount; c++) {
+      int length = sizes.getInt(4 * c);
+      if (length < 0) {
+        throw new StreamCorruptedException("corrupt off-heap associative array snapshot: chunk "
+            + c + " has length " + length);
+      } // if
+      ByteBuffer chunk = region(channel, position, length, map);
+      array.chunks.add(chunk);
+      position = align(position + length);
+    } // for
+    if (chunkCount > 0) {
+      // The last chunk is exactly full, so the next record starts a new one.
+      array.tail = array.chunks.get(chunkCount - 1).duplicate();
+      array.tail.position(array.tail.limit());
+    } // if
+    return array;
+  } // restore(FileChannel, Serializer, Serializer, boolean)
+
+  /**
+   * Get the length bytes of channel at position as a direct buffer,
+   * either by mapping them privately or by reading them.
+   */
+  static ByteBuffer region(FileChannel channel, long position, int length, boolean map)
+      throws IOException {
+    if (position + length > channel.size()) {
+      throw new IOException("off-heap associative array snapshot is truncated");
+    } // if
+    if (map) {
+      return channel.map(FileChannel.MapMode.PRIVATE, position, length);
+    } // if
+    ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+    readFully(channel, buffer, position);
+    return buffer;
+  } // region(FileChannel, long, int, boolean)
+
+  /**
+   * Fill buffer from channel, starting at position, and rewind it.
+   */
+  static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("off-heap associative array snapshot is truncated");
+      } // if
+    } // while
+    buffer.rewind();
+  } // readFully(FileChannel, ByteBuffer, long)
+
+  /**
+   * Write all of buffer to channel at position. Returns the position
+   * just past what was written.
+   */
+  static long writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    } // while
+    return position;
+  } // writeFully(FileChannel, ByteBuffer, long)
+
+  /**
+   * Round position up to a multiple of eight, so that the longs in
+   * the table (and records) stay aligned.
+   */
+  static long align(long position) {
+    return (position + 7) & ~7L;
+  } // align(long)
+
+  /**
+   * Determine how many bytes of chunk c hold records.
+   */
+  int filled(int c) {
+    return (c == this.chunks.size() - 1) ? this.tail.position() : this.chunks.get(c).limit();
+  } // filled(int)
+
+  /**
+   * Note that the key in scratch, whose serialized form is keyLength
+   * bytes long, is about to be removed. Subclasses that must be able
+   * to replay their records use this to log the removal.
+   */
+  void recordRemoval(int keyLength) {
+  } // recordRemoval(int)
+
+  /**
+   * Allocate the buffer for a new table of the given size. The buffer
+   * must start out zeroed, i.e., with every slot EMPTY.
+   */
+  ByteBuffer newTable(int bytes) {
+    return ByteBuffer.allocateDirect(bytes);
+  } // newTable(int)
+
+  /**
+   * Allocate the buffer for a new data chunk of the given size.
+   */
+  ByteBuffer newChunk(int bytes) {
+    return ByteBuffer.allocateDirect(bytes);
+  } // newChunk(int)
+
+  /**
+   * Put the record at ref, whose key is in scratch, into slot i, which
+   * probe returned as the place for that key. Grows the table first
+   * if need be.
+   */
+  void insert(int i, long ref, int hash, int keyLength) {
+    if (this.refAt(i) == REMOVED) {
+      this.removed--;
+    } else if (this.isFull()) {
+      // Growing moves everything, so the slot we found is stale.
+      this.expand();
+      i = -(this.probe(hash, keyLength) + 1);
+      this.used++;
+    } else {
+      this.used++;
+    } // if/else
+    this.putSlot(this.table, i, ref, hash, keyLength);
+    this.size++;
+  } // insert(int, long, int, int)
+
+  /**
+   * Find the chunk index in a record reference.
+   */
+  static int chunkOf(long ref) {
+    return (int) (ref >>> 32) - 1;
+  } // chunkOf(long)
+
+  /**
+   * Find the offset within its chunk in a record reference.
+   */
+  static int offsetOf(long ref) {
+    return (int) ref;
+  } // offsetOf(long)
+
+  /**
+   * Build the reference to the record at offset in chunk. The chunk
+   * number is offset by one so that no reference is EMPTY or REMOVED.
+   */
+  static long refFor(int chunk, int offset) {
+    return ((long) (chunk + 1) << 32) | offset;
+  } // refFor(int, int)
+
+  /**
+   * Determine the total length of the record at offset in chunk.
+   */
+  static int recordLength(ByteBuffer chunk, int offset) {
+    return RECORD_HEADER + chunk.getInt(offset) + Math.max(0, chunk.getInt(offset + 4));
+  } // recordLength(ByteBuffer, int)
+
+  /**
+   * Fill in slot i of table.
+   */
+  void putSlot(ByteBuffer table, int i, long ref, int hash, int keyLength) {
+    int base = i * SLOT_BYTES;
+    table.putLong(base, ref);
+    table.putInt(base + 8, hash);
+    table.putInt(base + 12, keyLength);
+  } // putSlot(ByteBuffer, int, long, int, int)
+
+  /**
+   * Get the record reference in slot i.
+   */
+  long refAt(int i) {
+    return this.table.getLong(i * SLOT_BYTES);
+  } // refAt(int)
+
+  /**
+   * Deserialize the key of the record at ref.
+   */
+  K keyAt(long ref) {
+    ByteBuffer chunk = this.chunks.get(chunkOf(ref));
+    int offset = offsetOf(ref);
+    int keyLength = chunk.getInt(offset);
+    ByteBuffer view = chunk.duplicate();
+    view.limit(offset + RECORD_HEADER + keyLength).position(offset + RECORD_HEADER);
+    return this.keySerializer.read(view, keyLength);
+  } // keyAt(long)
+
+  /**
+   * Deserialize the value of the record at ref.
+   */
+  V valueAt(long ref) {
+    ByteBuffer chunk = this.chunks.get(chunkOf(ref));
+    int offset = offsetOf(ref);
+    int keyLength = chunk.getInt(offset);
+    int valueLength = chunk.getInt(offset + 4);
+    if (valueLength < 0) {
+      return null;
+    } // if
+    int start = offset + RECORD_HEADER + keyLength;
+    ByteBuffer view = chunk.duplicate();
+    view.limit(start + valueLength).position(start);
+    return this.valueSerializer.read(view, valueLength);
+  } // valueAt(long)
+
+  /**
+   * Serialize key into scratch (growing it if need be), leaving the
+   * bytes between 0 and the limit. Returns the number of bytes.
+   */
+  int encode(K key) {
+    int length = this.keySerializer.sizeOf(key);
+    if (length > this.scratch.capacity()) {
+      this.scratch = ByteBuffer.allocate(Integer.highestOneBit(length - 1) << 1);
+    } // if
+    this.scratch.clear();
+    this.keySerializer.write(key, this.scratch);
+    if (this.scratch.position() != length) {
+      throw new IllegalStateException("key serializer wrote "
+          + this.scratch.position() + " bytes, not " + length);
+    } // if
+    this.scratch.flip();
+    return length;
+  } // encode(K)
+
+  /**
+   * Hash the first length bytes of scratch.
+   */
+  int hashScratch(int length) {
+    long h = length;
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      h = (h ^ this.scratch.getLong(i)) * 0x9E3779B97F4A7C15L;
+    } // for
+    for (; i < length; i++) {
+      h = (h ^ this.scratch.get(i)) * 0x9E3779B97F4A7C15L;
+    } // for
+    return AssociativeArray.spread(h);
+  } // hashScratch(int)
+
+  /**
+   * Determine if the key of the record at ref matches the first
+   * length bytes of scratch.
+   */
+  boolean keyMatches(long ref, int length) {
+    ByteBuffer chunk = this.chunks.get(chunkOf(ref));
+    int start = offsetOf(ref) + RECORD_HEADER;
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      if (chunk.getLong(start + i) != this.scratch.getLong(i)) {
+        return false;
+      } // if
+    } // for
+    for (; i < length; i++) {
+      if (chunk.get(start + i) != this.scratch.get(i)) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // keyMatches(long, int)
+
+  /**
+   * Find the slot that holds key, or -1 if there is none.
+   */
+  int find(K key) {
+    if (key == null) {
+      return -1;
+    } // if
+    int keyLength = this.encode(key);
+    int i = this.probe(this.hashScratch(keyLength), keyLength);
+    return (i >= 0) ? i : -1;
+  } // find(K)
+
+  /**
+   * Walk the probe sequence for the key in scratch once. Returns the
+   * slot that holds the key if there is one and otherwise -(slot + 1),
+   * where slot is the first removed or empty slot along the way.
+   */
+  int probe(int hash, int keyLength) {
+    int mask = this.capacity - 1;
+    int i = hash & mask;
+    int reusable = -1;
+    long ref;
+    while ((ref = this.refAt(i)) != EMPTY) {
+      if (ref == REMOVED) {
+        if (reusable == -1) {
+          reusable = i;
+        } // if
+      } else if ((this.table.getInt(i * SLOT_BYTES + 8) == hash)
+          && (this.table.getInt(i * SLOT_BYTES + 12) == keyLength)
+          && this.keyMatches(ref, keyLength)) {
+        return i;
+      } // if/else
+      i = (i + 1) & mask;
+    } // while
+    return -(((reusable == -1) ? i : reusable) + 1);
+  } // probe(int, int)
+
+  /**
+   * Append a record holding the key in scratch and value. Returns
+   * the reference to the new record.
+   */
+  long append(int keyLength, V value) {
+    int valueLength = (value == null) ? -1 : this.valueSerializer.sizeOf(value);
+    int length = RECORD_HEADER + keyLength + Math.max(0, valueLength);
+    long ref = this.reserve(length);
+    int start = this.tail.position();
+    this.tail.putInt(keyLength);
+    this.tail.putInt(valueLength);
+    this.tail.put(this.scratch);
+    this.scratch.rewind();
+    if (value != null) {
+      this.valueSerializer.write(value, this.tail);
+    } // if
+    if (this.tail.position() - start != length) {
+      throw new IllegalStateException("value serializer wrote the wrong number of bytes");
+    } // if
+    this.liveBytes += length;
+    return ref;
+  } // append(int, V)
+
+  /**
+   * Make sure the last chunk has room for length more bytes, adding a
+   * chunk if not. Returns the reference to where those bytes go.
+   */
+  long reserve(int length) {
+    if ((this.tail == null) || (this.tail.remaining() < length)) {
+      int chunkSize = this.chunks.isEmpty()
+          ? FIRST_CHUNK_SIZE
+          : (int) Math.min(this.maxChunkSize, 2L * this.tail.capacity());
+      chunkSize = Math.max(chunkSize, length);
+      if (this.tail != null) {
+        this.chunks.get(this.chunks.size() - 1).limit(this.tail.position());
+      } // if
+      ByteBuffer chunk = this.newChunk(chunkSize);
+      this.chunks.add(chunk);
+      this.tail = chunk.duplicate();
+    } // if
+    return refFor(this.chunks.size() - 1, this.tail.position());
+  } // reserve(int)
+
+  /**
+   * Note that the record at ref is no longer referenced.
+   */
+  void discard(long ref) {
+    int length = recordLength(this.chunks.get(chunkOf(ref)), offsetOf(ref));
+    this.liveBytes -= length;
+    this.garbageBytes += length;
+  } // discard(long)
+
+  /**
+   * Compact the chunks once garbage outweighs the live records.
+   */
+  void collectGarbage() {
+    if ((this.garbageBytes > this.liveBytes) && (this.garbageBytes > FIRST_CHUNK_SIZE)) {
+      this.compact();
+    } // if
+  } // collectGarbage()
+
+  /**
+   * Grow the table (or, if it is mostly removed slots, just rebuild
+   * it at the same size).
+   */
+  void expand() {
+    if (this.size < this.threshold / 2) {
+      this.rehash(this.capacity);
+      return;
+    } // if
+    if (this.capacity >= MAXIMUM_CAPACITY) {
+      throw new IllegalStateException("associative array is too large");
+    } // if
+    this.rehash(this.capacity * 2);
+  } // expand()
+
+  /**
+   * Replace the table with an empty one of newCapacity slots.
+   */
+  void allocate(int newCapacity) {
+    this.table = this.newTable(newCapacity * SLOT_BYTES);
+    this.capacity = newCapacity;
+    this.threshold = (int) Math.min(newCapacity - 1L,
+        (long) (newCapacity * this.loadFactor));
+    this.size = 0;
+    this.used = 0;
+    this.removed = 0;
+  } // allocate(int)
+
+  /**
+   * Move every slot into a fresh table of newCapacity slots, using
+   * the hashes stored in the slots.
+   */
+  void rehash(int newCapacity) {
+    ByteBuffer old = this.table;
+    int oldCapacity = this.capacity;
+    this.allocate(newCapacity);
+    int mask = newCapacity - 1;
+    for (int j = 0; j < oldCapacity; j++) {
+      long ref = old.getLong(j * SLOT_BYTES);
+      if ((ref != EMPTY) && (ref != REMOVED)) {
+        int hash = old.getInt(j * SLOT_BYTES + 8);
+        int i = hash & mask;
+        while (this.refAt(i) != EMPTY) {
+          i = (i + 1) & mask;
+        } // while
+        this.putSlot(this.table, i, ref, hash, old.getInt(j * SLOT_BYTES + 12));
+        this.size++;
+      } // if
+    } // for
+    this.used = this.size;
+  } // rehash(int)
+
+} // class OffHeapAssociativeArray
@@ -0,0 +1,453 @@
+package structures;
+
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable associative array. Instead of changing the array,
+ * with(key, value) and without(key) return new arrays, and the old
+ * one stays as it was. Keeping many versions is cheap because each
+ * new version shares all but a handful of nodes with the one it came
+ * from.
+ *
+ * The pairs live in a hash array mapped trie. Each level of the trie
+ * consumes five bits of the key's spread hash code; a node stores a
+ * 32-bit bitmap of which of its 32 possible children are present and
+ * an array holding only those children, so lookups and updates touch
+ * at most seven nodes (about log32 n in practice) and an update copies
+ * only the nodes along its path. Keys whose full hash codes collide
+ * share a collision node at the bottom of the trie.
+ *
+ * @author Lucas Willett
+ */
+public class PersistentAssociativeArray<K, V> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of hash bits consumed by each level of the trie.
+   */
+  static final int BITS = 5;
+
+  /**
+   * The marker returned by lookups that find nothing.
+   */
+  static final Object NOT_FOUND = new Object();
+
+  /**
+   * The empty array.
+   */
+  static final PersistentAssociativeArray<Object, Object> EMPTY =
+      new PersistentAssociativeArray<Object, Object>(null, 0);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The root of the trie, or null if the array is empty.
+   */
+  final Node root;
+
+  /**
+   * The number of key/value pairs.
+   */
+  final int size;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an array with the given trie.
+   */
+  PersistentAssociativeArray(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  } // PersistentAssociativeArray(Node, int)
+
+  /**
+   * Get the empty associative array.
+   */
+  @SuppressWarnings({ "unchecked" })
+  public static <K, V> PersistentAssociativeArray<K, V> empty() {
+    return (PersistentAssociativeArray<K, V>) EMPTY;
+  } // empty()
+
+  // +------------------+--------------------------------------------
+  // | Standard Methods |
+  // +------------------+
+
+  /**
+   * Convert the array to a string.
+   */
+  public String toString() {
+    if (this.size == 0) {
+      return "{}";
+    } // if
+    StringBuilder str = new StringBuilder("{ ");
+    this.forEach((key, value) -> str.append(key).append(": ").append(value).append(", "));
+    str.setLength(str.length() - 2);
+    return str.append(" }").toString();
+  } // toString()
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Get an array with the same pairs as this one, except that key is
+   * associated with value. This array is unchanged.
+   *
+   * @throws NullKeyException
+   *   when the key is null.
+   */
+  public PersistentAssociativeArray<K, V> with(K key, V value) throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException("null keys are not permitted");
+    } // if
+    int hash = AssociativeArray.spread(key.hashCode());
+    boolean[] added = new boolean[1];
+    Node newRoot = (this.root == null)
+        ? BitmapNode.EMPTY.with(0, hash, key, value, added)
+        : this.root.with(0, hash, key, value, added);
+    if (newRoot == this.root) {
+      return this;
+    } // if
+    return new PersistentAssociativeArray<K, V>(newRoot, added[0] ? this.size + 1 : this.size);
+  } // with(K,V)
+
+  /**
+   * Get an array with the same pairs as this one, except for the one
+   * with the given key. If there is no such pair, returns this array.
+   */
+  public PersistentAssociativeArray<K, V> without(K key) {
+    if ((key == null) || (this.root == null)) {
+      return this;
+    } // if
+    Node newRoot = this.root.without(0, AssociativeArray.spread(key.hashCode()), key);
+    if (newRoot == this.root) {
+      return this;
+    } // if
+    return new PersistentAssociativeArray<K, V>(newRoot, this.size - 1);
+  } // without(K)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @throws KeyNotFoundException
+   *   when the key is null or does not appear in the associative array.
+   */
+  @SuppressWarnings({ "unchecked" })
+  public V get(K key) throws KeyNotFoundException {
+    Object value = this.lookup(key);
+    if (value == NOT_FOUND) {
+      throw new KeyNotFoundException();
+    } // if
+    return (V) value;
+  } // get(K)
+
+  /**
+   * Determine if key appears in the associative array. Returns
+   * false for the null key.
+   */
+  public boolean hasKey(K key) {
+    return this.lookup(key) != NOT_FOUND;
+  } // hasKey(K)
+
+  /**
+   * Determine how many key/value pairs are in the associative array.
+   */
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Call action on each key and its value.
+   */
+  @SuppressWarnings({ "unchecked" })
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    if (this.root != null) {
+      this.root.forEach((BiConsumer<Object, Object>) action);
+    } // if
+  } // forEach(BiConsumer)
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Find the value associated with key, or NOT_FOUND.
+   */
+  Object lookup(K key) {
+    if ((key == null) || (this.root == null)) {
+      return NOT_FOUND;
+    } // if
+    return this.root.find(0, AssociativeArray.spread(key.hashCode()), key);
+  } // lookup(K)
+
+  /**
+   * Find the bit that stands for the part of hash used at shift.
+   */
+  static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & ((1 << BITS) - 1));
+  } // bit(int, int)
+
+  // +-------+-------------------------------------------------------
+  // | Nodes |
+  // +-------+
+
+  /**
+   * A node of the trie. Nodes are never changed once built.
+   */
+  abstract static class Node {
+    /**
+     * Find the value for key, whose spread hash is hash, in the
+     * subtrie at the level given by shift. Returns NOT_FOUND if
+     * there is none.
+     */
+    abstract Object find(int shift, int hash, Object key);
+
+    /**
+     * Get a node like this one, but with key associated with value.
+     * Returns this node if nothing changes. Sets added[0] if key was
+     * not already present.
+     */
+    abstract Node with(int shift, int hash, Object key, Object value, boolean[] added);
+
+    /**
+     * Get a node like this one, but without key. Returns this node if
+     * key is not present, and null if the result would be empty.
+     */
+    abstract Node without(int shift, int hash, Object key);
+
+    /**
+     * Call action on each pair below this node.
+     */
+    abstract void forEach(BiConsumer<Object, Object> action);
+  } // class Node
+
+  /**
+   * A node with up to 32 children, one for each value of the hash bits
+   * at its level. The entries array holds two slots per child present:
+   * a key and its value, or null and a child Node.
+   */
+  static class BitmapNode extends Node {
+    /**
+     * The node with no children.
+     */
+    static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    /**
+     * Which children are present.
+     */
+    final int bitmap;
+
+    /**
+     * The children, in bit order, two slots each.
+     */
+    final Object[] entries;
+
+    /**
+     * Create a node.
+     */
+    BitmapNode(int bitmap, Object[] entries) {
+      this.bitmap = bitmap;
+      this.entries = entries;
+    } // BitmapNode(int, Object[])
+
+    /**
+     * Find the position of the child for bit within entries.
+     */
+    int index(int bit) {
+      return 2 * Integer.bitCount(this.bitmap & (bit - 1));
+    } // index(int)
+
+    Object find(int shift, int hash, Object key) {
+      int bit = bit(hash, shift);
+      if ((this.bitmap & bit) == 0) {
+        return NOT_FOUND;
+      } // if
+      int i = this.index(bit);
+      Object k = this.entries[i];
+      if (k == null) {
+        return ((Node) this.entries[i + 1]).find(shift + BITS, hash, key);
+      } // if
+      return key.equals(k) ? this.entries[i + 1] : NOT_FOUND;
+    } // find(int, int, Object)
+
+    Node with(int shift, int hash, Object key, Object value, boolean[] added) {
+      int bit = bit(hash, shift);
+      int i = this.index(bit);
+      if ((this.bitmap & bit) == 0) {
+        Object[] entries = new Object[this.entries.length + 2];
+        System.arraycopy(this.entries, 0, entries, 0, i);
+        entries[i] = key;
+        entries[i + 1] = value;
+        System.arraycopy(this.entries, i, entries, i + 2, this.entries.length - i);
+        added[0] = true;
+        return new BitmapNode(this.bitmap | bit, entries);
+      } // if
+      Object k = this.entries[i];
+      Object v = this.entries[i + 1];
+      if (k == null) {
+        Node child = ((Node) v).with(shift + BITS, hash, key, value, added);
+        return (child == v) ? this : this.replace(i, null, child);
+      } // if
+      if (key.equals(k)) {
+        return (value == v) ? this : this.replace(i, k, value);
+      } // if
+      added[0] = true;
+      return this.replace(i, null, pair(shift + BITS,
+          AssociativeArray.spread(k.hashCode()), k, v, hash, key, value));
+    } // with(int, int, Object, Object, boolean[])
+
+    Node without(int shift, int hash, Object key) {
+      int bit = bit(hash, shift);
+      if ((this.bitmap & bit) == 0) {
+        return this;
+      } // if
+      int i = this.index(bit);
+      Object k = this.entries[i];
+      Object v = this.entries[i + 1];
+      if (k == null) {
+        Node child = ((Node) v).without(shift + BITS, hash, key);
+        if (child == v) {
+          return this;
+        } // if
+        if (child != null) {
+          return this.replace(i, null, child);
+        } // if
+      } else if (!key.equals(k)) {
+        return this;
+      } // if/else
+      if (this.bitmap == bit) {
+        return null;
+      } // if
+      Object[] entries = new Object[this.entries.length - 2];
+      System.arraycopy(this.entries, 0, entries, 0, i);
+      System.arraycopy(this.entries, i + 2, entries, i, entries.length - i);
+      return new BitmapNode(this.bitmap & ~bit, entries);
+    } // without(int, int, Object)
+
+    void forEach(BiConsumer<Object, Object> action) {
+      for (int i = 0; i < this.entries.length; i += 2) {
+        if (this.entries[i] == null) {
+          ((Node) this.entries[i + 1]).forEach(action);
+        } else {
+          action.accept(this.entries[i], this.entries[i + 1]);
+        } // if/else
+      } // for
+    } // forEach(BiConsumer)
+
+    /**
+     * Get a copy of this node with the child at position i replaced.
+     */
+    BitmapNode replace(int i, Object key, Object value) {
+      Object[] entries = this.entries.clone();
+      entries[i] = key;
+      entries[i + 1] = value;
+      return new BitmapNode(this.bitmap, entries);
+    } // replace(int, Object, Object)
+
+    /**
+     * Build the subtrie, at the level given by shift, that holds two
+     * distinct keys.
+     */
+    static Node pair(int shift, int hash1, Object key1, Object value1,
+        int hash2, Object key2, Object value2) {
+      if (hash1 == hash2) {
+        return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+      } // if
+      boolean[] ignored = new boolean[1];
+      return EMPTY.with(shift, hash1, key1, value1, ignored)
+          .with(shift, hash2, key2, value2, ignored);
+    } // pair(int, int, Object, Object, int, Object, Object)
+  } // class BitmapNode
+
+  /**
+   * A node holding keys whose spread hash codes are all the same, as
+   * alternating keys and values.
+   */
+  static class CollisionNode extends Node {
+    /**
+     * The hash code the keys share.
+     */
+    final int hash;
+
+    /**
+     * The keys and values.
+     */
+    final Object[] entries;
+
+    /**
+     * Create a node.
+     */
+    CollisionNode(int hash, Object[] entries) {
+      this.hash = hash;
+      this.entries = entries;
+    } // CollisionNode(int, Object[])
+
+    /**
+     * Find the position of key within entries, or -1.
+     */
+    int index(Object key) {
+      for (int i = 0; i < this.entries.length; i += 2) {
+        if (key.equals(this.entries[i])) {
+          return i;
+        } // if
+      } // for
+      return -1;
+    } // index(Object)
+
+    Object find(int shift, int hash, Object key) {
+      int i = (hash == this.hash) ? this.index(key) : -1;
+      return (i < 0) ? NOT_FOUND : this.entries[i + 1];
+    } // find(int, int, Object)
+
+    Node with(int shift, int hash, Object key, Object value, boolean[] added) {
+      if (hash != this.hash) {
+        // Push this node down under a bitmap node that can tell the
+        // two hashes apart.
+        return new BitmapNode(bit(this.hash, shift), new Object[] { null, this })
+            .with(shift, hash, key, value, added);
+      } // if
+      int i = this.index(key);
+      Object[] entries;
+      if (i < 0) {
+        entries = new Object[this.entries.length + 2];
+        System.arraycopy(this.entries, 0, entries, 0, this.entries.length);
+        entries[this.entries.length] = key;
+        entries[this.entries.length + 1] = value;
+        added[0] = true;
+      } else if (this.entries[i + 1] == value) {
+        return this;
+      } else {
+        entries = this.entries.clone();
+        entries[i + 1] = value;
+      } // if/else
+      return new CollisionNode(this.hash, entries);
+    } // with(int, int, Object, Object, boolean[])
+
+    Node without(int shift, int hash, Object key) {
+      int i = (hash == this.hash) ? this.index(key) : -1;
+      if (i < 0) {
+        return this;
+      } // if
+      if (this.entries.length == 2) {
+        return null;
+      } // if
+      Object[] entries = new Object[this.entries.length - 2];
+      System.arraycopy(this.entries, 0, entries, 0, i);
+      System.arraycopy(this.entries, i + 2, entries, i, entries.length - i);
+      return new CollisionNode(this.hash, entries);
+    } // without(int, int, Object)
+
+    void forEach(BiConsumer<Object, Object> action) {
+      for (int i = 0; i < this.entries.length; i += 2) {
+        action.accept(this.entries[i], this.entries[i + 1]);
+      } // for
+    } // forEach(BiConsumer)
+  } // class CollisionNode
+
+} // class PersistentAssociativeArray
@@ -0,0 +1,29 @@
+package structures;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A way to turn values of type T into bytes and back again, for the
+ * associative arrays that keep their keys and values outside the Java
+ * heap. Serializers for common types live in Serializers.
+ *
+ * @author Lucas Willett
+ */
+public interface Serializer<T> {
+  /**
+   * Determine how many bytes write(value, buffer) will write.
+   */
+  public int sizeOf(T value);
+
+  /**
+   * Write exactly sizeOf(value) bytes describing value to buffer,
+   * starting at its position.
+   */
+  public void write(T value, ByteBuffer buffer);
+
+  /**
+   * Rebuild a value from the length bytes that start at the position
+   * of buffer.
+   */
+  public T read(ByteBuffer buffer, int length);
+} // interface Serializer
@@ -0,0 +1,155 @@
+package structures;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serializers for the key and value types we use most.
+ *
+ * @author Lucas Willett
+ */
+public class Serializers {
+  // +-------------+-------------------------------------------------
+  // | Serializers |
+  // +-------------+
+
+  /**
+   * Strings, as UTF-8. Unpaired surrogates become '?', as they do in
+   * String.getBytes.
+   */
+  public static final Serializer<String> STRING = new Serializer<String>() {
+    public int sizeOf(String value) {
+      int size = 0;
+      int len = value.length();
+      for (int i = 0; i < len; i++) {
+        char c = value.charAt(i);
+        if (c < 0x80) {
+          size += 1;
+        } else if (c < 0x800) {
+          size += 2;
+        } else if (Character.isHighSurrogate(c) && (i + 1 < len)
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          size += 4;
+          i++;
+        } else if (Character.isSurrogate(c)) {
+          size += 1;
+        } else {
+          size += 3;
+        } // if/else
+      } // for
+      return size;
+    } // sizeOf(String)
+
+    public void write(String value, ByteBuffer buffer) {
+      int len = value.length();
+      for (int i = 0; i < len; i++) {
+        char c = value.charAt(i);
+        if (c < 0x80) {
+          buffer.put((byte) c);
+        } else if (c < 0x800) {
+          buffer.put((byte) (0xC0 | (c >> 6)));
+          buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c) && (i + 1 < len)
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, value.charAt(++i));
+          buffer.put((byte) (0xF0 | (cp >> 18)));
+          buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+          buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+          buffer.put((byte) (0x80 | (cp & 0x3F)));
+        } else if (Character.isSurrogate(c)) {
+          buffer.put((byte) '?');
+        } else {
+          buffer.put((byte) (0xE0 | (c >> 12)));
+          buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+          buffer.put((byte) (0x80 | (c & 0x3F)));
+        } // if/else
+      } // for
+    } // write(String, ByteBuffer)
+
+    public String read(ByteBuffer buffer, int length) {
+      return new String(bytes(buffer, length), StandardCharsets.UTF_8);
+    } // read(ByteBuffer, int)
+  }; // STRING
+
+  /**
+   * Byte arrays, as themselves.
+   */
+  public static final Serializer<byte[]> BYTES = new Serializer<byte[]>() {
+    public int sizeOf(byte[] value) {
+      return value.length;
+    } // sizeOf(byte[])
+
+    public void write(byte[] value, ByteBuffer buffer) {
+      buffer.put(value);
+    } // write(byte[], ByteBuffer)
+
+    public byte[] read(ByteBuffer buffer, int length) {
+      return bytes(buffer, length);
+    } // read(ByteBuffer, int)
+  }; // BYTES
+
+  /**
+   * Integers, as four big-endian bytes.
+   */
+  public static final Serializer<Integer> INTEGER = new Serializer<Integer>() {
+    public int sizeOf(Integer value) {
+      return Integer.BYTES;
+    } // sizeOf(Integer)
+
+    public void write(Integer value, ByteBuffer buffer) {
+      buffer.putInt(value);
+    } // write(Integer, ByteBuffer)
+
+    public Integer read(ByteBuffer buffer, int length) {
+      return buffer.getInt();
+    } // read(ByteBuffer, int)
+  }; // INTEGER
+
+  /**
+   * Longs, as eight big-endian bytes.
+   */
+  public static final Serializer<Long> LONG = new Serializer<Long>() {
+    public int sizeOf(Long value) {
+      return Long.BYTES;
+    } // sizeOf(Long)
+
+    public void write(Long value, ByteBuffer buffer) {
+      buffer.putLong(value);
+    } // write(Long, ByteBuffer)
+
+    public Long read(ByteBuffer buffer, int length) {
+      return buffer.getLong();
+    } // read(ByteBuffer, int)
+  }; // LONG
+
+  /**
+   * BigIntegers, as their two's-complement bytes.
+   */
+  public static final Serializer<BigInteger> BIG_INTEGER = new Serializer<BigInteger>() {
+    public int sizeOf(BigInteger value) {
+      return value.bitLength() / 8 + 1;
+    } // sizeOf(BigInteger)
+
+    public void write(BigInteger value, ByteBuffer buffer) {
+      buffer.put(value.toByteArray());
+    } // write(BigInteger, ByteBuffer)
+
+    public BigInteger read(ByteBuffer buffer, int length) {
+      return new BigInteger(bytes(buffer, length));
+    } // read(ByteBuffer, int)
+  }; // BIG_INTEGER
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Copy the next length bytes of buffer into a new array.
+   */
+  static byte[] bytes(ByteBuffer buffer, int length) {
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  } // bytes(ByteBuffer, int)
+} // class Serializers